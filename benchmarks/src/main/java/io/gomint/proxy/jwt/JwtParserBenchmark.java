@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.jwt;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing a login chain with {@link JwtToken} against the json-simple based parser it replaced. Both parse
+ * the chain JSON and all three tokens of a chain shaped like an Xbox Live login and keep what signature validation
+ * needs. Signatures are random bytes, they are not verified.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class JwtParserBenchmark {
+
+    private String chain;
+
+    @Setup( Level.Trial )
+    public void setup() {
+        Random random = new Random( 42 );
+        String clientKey = randomKey( random );
+        String mojangKey = randomKey( random );
+        String intermediateKey = randomKey( random );
+        long now = System.currentTimeMillis() / 1000;
+
+        String first = token( random, clientKey, "{\"certificateAuthority\":true,\"exp\":" + ( now + 172800 ) +
+            ",\"identityPublicKey\":\"" + mojangKey + "\",\"nbf\":" + ( now - 60 ) + "}" );
+        String second = token( random, mojangKey, "{\"certificateAuthority\":true,\"exp\":" + ( now + 172800 ) +
+            ",\"identityPublicKey\":\"" + intermediateKey + "\",\"nbf\":" + ( now - 60 ) + ",\"randomNonce\":" + random.nextLong() +
+            ",\"iss\":\"Mojang\",\"iat\":" + now + "}" );
+        String third = token( random, intermediateKey, "{\"exp\":" + ( now + 172800 ) + ",\"identityPublicKey\":\"" + clientKey +
+            "\",\"nbf\":" + ( now - 60 ) + ",\"randomNonce\":" + random.nextLong() + ",\"iss\":\"Mojang\",\"extraData\":{\"XUID\":\"" +
+            ( 2535400000000000L + random.nextInt( 1000000 ) ) + "\",\"identity\":\"" + new UUID( random.nextLong(), random.nextLong() ) +
+            "\",\"displayName\":\"SomePlayer\",\"titleId\":\"896928775\"},\"iat\":" + now + "}" );
+
+        this.chain = "{\"chain\":[\"" + first + "\",\"" + second + "\",\"" + third + "\"]}";
+    }
+
+    @Benchmark
+    public void streaming( Blackhole blackhole ) {
+        for ( String token : JwtToken.parseChain( this.chain ) ) {
+            blackhole.consume( JwtToken.parse( token ) );
+        }
+    }
+
+    @Benchmark
+    public void jsonSimple( Blackhole blackhole ) throws ParseException {
+        JSONObject json = (JSONObject) new JSONParser().parse( this.chain );
+        for ( Object token : (JSONArray) json.get( "chain" ) ) {
+            parseJsonSimple( (String) token, blackhole );
+        }
+    }
+
+    /**
+     * The parser {@link JwtToken#parse(String)} used before it streamed the JSON
+     */
+    private static void parseJsonSimple( String s, Blackhole blackhole ) throws ParseException {
+        String[] split = s.split( "\\." );
+        if ( split.length != 3 ) {
+            throw new IllegalArgumentException( "Invalid JWT Token: Expecting exactly three parts delimited by dots '.'" );
+        }
+
+        String jwtHeaderJson = new String( Base64.getDecoder().decode( split[0] ), StandardCharsets.UTF_8 );
+        String jwtClaimsJson = new String( Base64.getDecoder().decode( split[1] ), StandardCharsets.UTF_8 );
+
+        JSONParser parser = new JSONParser();
+        blackhole.consume( parser.parse( jwtHeaderJson ) );
+        blackhole.consume( parser.parse( jwtClaimsJson ) );
+        blackhole.consume( ( split[0] + '.' + split[1] ).getBytes( StandardCharsets.US_ASCII ) );
+        blackhole.consume( Base64.getUrlDecoder().decode( split[2] ) );
+    }
+
+    private static String randomKey( Random random ) {
+        // Same length as a encoded secp384r1 public key
+        byte[] key = new byte[120];
+        random.nextBytes( key );
+        return Base64.getEncoder().encodeToString( key );
+    }
+
+    private static String token( Random random, String x5u, String claims ) {
+        // Mojang uses the standard alphabet for header and claims, the signature is URL safe
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        String header = "{\"x5u\":\"" + x5u + "\",\"alg\":\"ES384\"}";
+
+        byte[] signature = new byte[96];
+        random.nextBytes( signature );
+
+        return encoder.encodeToString( header.getBytes( StandardCharsets.UTF_8 ) ) + '.' +
+            encoder.encodeToString( claims.getBytes( StandardCharsets.UTF_8 ) ) + '.' +
+            Base64.getUrlEncoder().withoutPadding().encodeToString( signature );
+    }
+
+}
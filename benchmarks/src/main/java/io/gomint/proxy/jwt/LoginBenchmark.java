@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.jwt;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.crypto.KeyAgreement;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the crypto work of one login on a single thread, the score is logins per second per core. A login
+ * consists of:
+ * <ul>
+ * <li>parsing the chain and verifying the three signatures of an Xbox Live chain</li>
+ * <li>deriving the ECDH secret with the client key and signing the encryption request</li>
+ * <li>forging the chain and skin token the proxy sends to the backend</li>
+ * </ul>
+ * Every login comes from another player, so none of the login caches of the proxy help. Mojang's key is replaced by a
+ * root key generated for the benchmark; run with {@code -t} to see how it scales over multiple cores.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml" )
+@Threads( 1 )
+@State( Scope.Benchmark )
+public class LoginBenchmark {
+
+    private static final int PLAYERS = 128;
+
+    private String rootPublicKey;
+    private PublicKey rootKey;
+    private KeyPair proxyKeyPair;
+    private String proxyPublicKey;
+    private List<String> chains;
+    private byte[] skinClaims;
+
+    @Setup( Level.Trial )
+    public void setup() throws GeneralSecurityException, JwtSignatureException {
+        Security.addProvider( new BouncyCastleProvider() );
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance( "EC", "BC" );
+        generator.initialize( 384 );
+
+        KeyPair root = generator.generateKeyPair();
+        KeyPair intermediate = generator.generateKeyPair();
+        this.rootKey = root.getPublic();
+        this.rootPublicKey = encodeKey( root );
+        this.proxyKeyPair = generator.generateKeyPair();
+        this.proxyPublicKey = encodeKey( this.proxyKeyPair );
+
+        // Same shape as Xbox Live chains: client -> root -> intermediate -> client
+        this.chains = new ArrayList<>( PLAYERS );
+        for ( int i = 0; i < PLAYERS; i++ ) {
+            KeyPair client = generator.generateKeyPair();
+            String clientPublicKey = encodeKey( client );
+
+            String selfSigned = token( client, "{\"certificateAuthority\":true,\"identityPublicKey\":\"" + this.rootPublicKey + "\"}" );
+            String rootSigned = token( root, "{\"certificateAuthority\":true,\"identityPublicKey\":\"" + encodeKey( intermediate ) + "\"}" );
+            String intermediateSigned = token( intermediate, "{\"extraData\":{\"displayName\":\"Player" + i + "\",\"identity\":\"" +
+                UUID.randomUUID() + "\",\"XUID\":\"" + ( 2535400000000000L + i ) + "\"},\"identityPublicKey\":\"" + clientPublicKey + "\"}" );
+
+            this.chains.add( "{\"chain\":[\"" + selfSigned + "\",\"" + rootSigned + "\",\"" + intermediateSigned + "\"]}" );
+        }
+
+        // A 64x64 skin, clients send the claims in the standard alphabet so the forger has to convert them
+        byte[] skinData = new byte[64 * 64 * 4];
+        new Random( 1 ).nextBytes( skinData );
+        String skin = "{\"SkinId\":\"Standard_Custom\",\"SkinData\":\"" + Base64.getEncoder().encodeToString( skinData ) + "\"}";
+        this.skinClaims = Base64.getEncoder().encode( skin.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    @Benchmark
+    public void login( PlayerState player, Blackhole blackhole ) throws GeneralSecurityException {
+        String chain = this.chains.get( player.next() );
+
+        // Validate the chain the client sent
+        MojangChainValidator validator = new MojangChainValidator();
+        validator.getTrustedKeys().put( this.rootPublicKey, this.rootKey );
+        for ( String token : JwtToken.parseChain( chain ) ) {
+            validator.addToken( JwtToken.parse( token ) );
+        }
+
+        if ( !validator.validate() ) {
+            throw new IllegalStateException( "Chain did not validate" );
+        }
+
+        // Start the encryption with the client
+        KeyAgreement agreement = CryptoPrimitives.ecdhKeyAgreement();
+        agreement.init( this.proxyKeyPair.getPrivate() );
+        agreement.doPhase( validator.getClientPublicKey(), true );
+        byte[] secret = agreement.generateSecret();
+
+        byte[] salt = new byte[16];
+        CryptoPrimitives.secureRandom().nextBytes( salt );
+
+        MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+        digest.update( salt );
+        digest.update( secret );
+        blackhole.consume( digest.digest() );
+
+        String request = new EncryptionRequestForger().forge( this.proxyPublicKey, this.proxyKeyPair.getPrivate(), salt );
+        if ( request == null ) {
+            throw new IllegalStateException( "Could not forge encryption request" );
+        }
+
+        blackhole.consume( request );
+
+        // Log in to the backend as this player, the UUID is new every time so the forged chain is never cached
+        byte[] payload = player.forger.forgeLoginPayload( validator.getUsername(), player.nextUUID(), this.skinClaims );
+        if ( payload == null ) {
+            throw new IllegalStateException( "Could not forge login" );
+        }
+
+        blackhole.consume( payload );
+    }
+
+    private static String encodeKey( KeyPair keyPair ) {
+        return Base64.getEncoder().encodeToString( keyPair.getPublic().getEncoded() );
+    }
+
+    private static String token( KeyPair signer, String claims ) throws JwtSignatureException {
+        Base64.Encoder encoder = Base64.getUrlEncoder();
+        String header = "{\"alg\":\"ES384\",\"x5u\":\"" + encodeKey( signer ) + "\"}";
+        String signed = encoder.encodeToString( header.getBytes( StandardCharsets.UTF_8 ) ) + '.' +
+            encoder.encodeToString( claims.getBytes( StandardCharsets.UTF_8 ) );
+
+        byte[] signature = JwtAlgorithm.ES384.getSignature().sign( signer.getPrivate(), signed.getBytes( StandardCharsets.US_ASCII ) );
+        return signed + '.' + encoder.encodeToString( signature );
+    }
+
+    /**
+     * Per thread position in the player list and forger of the proxy
+     */
+    @State( Scope.Thread )
+    public static class PlayerState {
+
+        private MojangLoginForger forger;
+        private int index;
+        private long logins;
+
+        @Setup( Level.Trial )
+        public void setup( LoginBenchmark benchmark ) {
+            this.forger = new MojangLoginForger( benchmark.proxyKeyPair );
+            this.index = (int) ( Thread.currentThread().getId() % PLAYERS );
+        }
+
+        private int next() {
+            int current = this.index;
+            this.index = current + 1 == PLAYERS ? 0 : current + 1;
+            return current;
+        }
+
+        private UUID nextUUID() {
+            return new UUID( Thread.currentThread().getId(), this.logins++ );
+        }
+
+    }
+
+}
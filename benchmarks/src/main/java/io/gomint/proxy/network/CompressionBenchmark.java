@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+import io.gomint.jraknet.PacketBuffer;
+import io.gomint.proxy.network.compression.CompressionSettings;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the compression settings on batches. Batches are read from a directory of captured, uncompressed batch
+ * payloads (one file per batch) given through the {@code captures} parameter; without captures synthetic batches
+ * resembling the mix of movement, metadata, chunk and chat packets of a busy server are used.
+ * <p>
+ * Besides the time per batch the {@code bytesIn} and {@code bytesOut} counters are reported, their ratio is the
+ * compression ratio of a setting.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class CompressionBenchmark {
+
+    private static final int SYNTHETIC_BATCHES = 256;
+
+    @Param( { "native", "zlib:1", "zlib:6", "zlib:9" } )
+    public String compression;
+
+    @Param( { "" } )
+    public String captures;
+
+    private List<ByteBuf> batches;
+    private List<ByteBuf> compressedBatches;
+    private BatchProcessor encoder;
+    private BatchProcessor decoder;
+    private int index;
+
+    @Setup( Level.Trial )
+    public void setup() throws IOException {
+        this.batches = this.captures.isEmpty() ? syntheticBatches() : capturedBatches( new File( this.captures ) );
+
+        CompressionSettings settings = CompressionSettings.parse( this.compression );
+        this.encoder = BatchProcessor.create( settings, true );
+        this.decoder = BatchProcessor.create( settings, false );
+
+        this.compressedBatches = new ArrayList<>( this.batches.size() );
+        for ( ByteBuf batch : this.batches ) {
+            ByteBuf compressed = this.encoder.process( batch.duplicate() );
+            this.compressedBatches.add( Unpooled.copiedBuffer( compressed ) );
+            compressed.release();
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() {
+        this.encoder.close();
+        this.decoder.close();
+        this.batches.forEach( ByteBuf::release );
+        this.compressedBatches.forEach( ByteBuf::release );
+    }
+
+    @Benchmark
+    public int compress( Counters counters ) {
+        ByteBuf batch = this.batches.get( this.next() );
+        ByteBuf compressed = this.encoder.process( batch.duplicate() );
+
+        int length = compressed.readableBytes();
+        counters.bytesIn += batch.readableBytes();
+        counters.bytesOut += length;
+        compressed.release();
+        return length;
+    }
+
+    @Benchmark
+    public int decompress() {
+        ByteBuf compressed = this.compressedBatches.get( this.next() );
+        ByteBuf batch = this.decoder.process( compressed.duplicate() );
+
+        int length = batch.readableBytes();
+        batch.release();
+        return length;
+    }
+
+    private int next() {
+        int current = this.index;
+        this.index = current + 1 == this.batches.size() ? 0 : current + 1;
+        return current;
+    }
+
+    private static List<ByteBuf> capturedBatches( File directory ) throws IOException {
+        File[] files = directory.listFiles( File::isFile );
+        if ( files == null || files.length == 0 ) {
+            throw new IOException( "No captured batches in " + directory );
+        }
+
+        Arrays.sort( files );
+        List<ByteBuf> batches = new ArrayList<>( files.length );
+        for ( File file : files ) {
+            batches.add( Unpooled.directBuffer().writeBytes( Files.readAllBytes( file.toPath() ) ) );
+        }
+
+        return batches;
+    }
+
+    private static List<ByteBuf> syntheticBatches() {
+        Random random = new Random( 42 );
+        List<ByteBuf> batches = new ArrayList<>( SYNTHETIC_BATCHES );
+        for ( int i = 0; i < SYNTHETIC_BATCHES; i++ ) {
+            ByteBuf batch = Unpooled.directBuffer();
+
+            // Most batches only carry a few entity updates, every now and then a chunk or chat message comes along
+            int packets = 1 + random.nextInt( 12 );
+            for ( int p = 0; p < packets; p++ ) {
+                int kind = random.nextInt( 100 );
+                if ( kind < 60 ) {
+                    writePacket( batch, movePacket( random ) );
+                } else if ( kind < 85 ) {
+                    writePacket( batch, metadataPacket( random ) );
+                } else if ( kind < 95 ) {
+                    writePacket( batch, chatPacket( random ) );
+                } else {
+                    writePacket( batch, chunkPacket( random ) );
+                }
+            }
+
+            batches.add( batch );
+        }
+
+        return batches;
+    }
+
+    private static void writePacket( ByteBuf batch, ByteBuf packet ) {
+        new PacketBuffer( batch ).writeUnsignedVarInt( packet.readableBytes() );
+        batch.writeBytes( packet );
+        packet.release();
+    }
+
+    private static ByteBuf movePacket( Random random ) {
+        PacketBuffer buffer = new PacketBuffer( 64 );
+        buffer.writeUnsignedVarInt( 0x6F );
+        buffer.writeUnsignedVarLong( 1 + random.nextInt( 200 ) );
+        buffer.writeByte( (byte) 0 );
+        buffer.writeLFloat( 100 + random.nextFloat() * 16 );
+        buffer.writeLFloat( 64 + random.nextFloat() );
+        buffer.writeLFloat( -200 + random.nextFloat() * 16 );
+        buffer.writeByte( (byte) random.nextInt( 256 ) );
+        buffer.writeByte( (byte) random.nextInt( 256 ) );
+        buffer.writeByte( (byte) random.nextInt( 256 ) );
+        return buffer.getBuffer();
+    }
+
+    private static ByteBuf metadataPacket( Random random ) {
+        PacketBuffer buffer = new PacketBuffer( 128 );
+        buffer.writeUnsignedVarInt( PacketRegistry.PACKET_ENTITY_METADATA );
+        buffer.writeUnsignedVarLong( 1 + random.nextInt( 200 ) );
+
+        int entries = 2 + random.nextInt( 6 );
+        buffer.writeUnsignedVarInt( entries );
+        for ( int i = 0; i < entries; i++ ) {
+            buffer.writeUnsignedVarInt( i );
+            buffer.writeUnsignedVarInt( 7 );
+            buffer.writeSignedVarLong( random.nextInt( 4 ) == 0 ? random.nextLong() : 0 );
+        }
+
+        buffer.writeUnsignedVarLong( 0 );
+        return buffer.getBuffer();
+    }
+
+    private static ByteBuf chatPacket( Random random ) {
+        String[] words = { "hello", "anyone", "selling", "diamonds", "spawn", "lag", "gg", "where", "is", "the", "shop" };
+        StringBuilder message = new StringBuilder();
+        int length = 2 + random.nextInt( 10 );
+        for ( int i = 0; i < length; i++ ) {
+            message.append( words[random.nextInt( words.length )] ).append( ' ' );
+        }
+
+        PacketBuffer buffer = new PacketBuffer( 128 );
+        buffer.writeUnsignedVarInt( 0x09 );
+        buffer.writeByte( (byte) 1 );
+        buffer.writeBoolean( false );
+        buffer.writeString( "Player" + random.nextInt( 100 ) );
+        buffer.writeString( message.toString() );
+        buffer.writeString( "" );
+        buffer.writeString( "" );
+        return buffer.getBuffer();
+    }
+
+    private static ByteBuf chunkPacket( Random random ) {
+        PacketBuffer buffer = new PacketBuffer( 8192 );
+        buffer.writeUnsignedVarInt( 0x3A );
+        buffer.writeSignedVarInt( random.nextInt( 64 ) );
+        buffer.writeSignedVarInt( random.nextInt( 64 ) );
+
+        // Few sub chunks, block storages with a small palette: long runs of the same index
+        int subChunks = 4 + random.nextInt( 4 );
+        buffer.writeUnsignedVarInt( subChunks );
+        for ( int s = 0; s < subChunks; s++ ) {
+            buffer.writeByte( (byte) 8 );
+            buffer.writeByte( (byte) 1 );
+            buffer.writeByte( (byte) ( 4 << 1 | 1 ) );
+
+            int word = 0;
+            for ( int w = 0; w < 512; w++ ) {
+                if ( random.nextInt( 16 ) == 0 ) {
+                    word = random.nextInt();
+                }
+
+                buffer.writeLInt( word );
+            }
+
+            buffer.writeSignedVarInt( 16 );
+            for ( int p = 0; p < 16; p++ ) {
+                buffer.writeSignedVarInt( random.nextInt( 4096 ) );
+            }
+        }
+
+        // Biomes
+        byte biome = (byte) random.nextInt( 40 );
+        for ( int b = 0; b < 256; b++ ) {
+            buffer.writeByte( biome );
+        }
+
+        buffer.writeByte( (byte) 0 );
+        buffer.writeSignedVarInt( 0 );
+        return buffer.getBuffer();
+    }
+
+    /**
+     * Bytes going into and coming out of the compressor
+     */
+    @AuxCounters( AuxCounters.Type.EVENTS )
+    @State( Scope.Thread )
+    public static class Counters {
+
+        public long bytesIn;
+        public long bytesOut;
+
+        @Setup( Level.Iteration )
+        public void reset() {
+            this.bytesIn = 0;
+            this.bytesOut = 0;
+        }
+
+    }
+
+}
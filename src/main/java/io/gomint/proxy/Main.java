@@ -9,11 +9,25 @@ package io.gomint.proxy;
 
 import io.gomint.proxy.asset.AssetAssembler;
 import io.gomint.proxy.network.EncryptionHandler;
+import io.gomint.proxy.network.ProxyKeyStore;
+import io.gomint.proxy.network.backend.Backend;
+import io.gomint.proxy.network.backend.BackendPool;
+import io.gomint.proxy.network.backend.BalancingStrategy;
+import io.gomint.proxy.jwt.SelfVerificationPolicy;
+import io.gomint.proxy.network.compression.CompressionSettings;
+import io.gomint.proxy.util.AsyncFileSink;
+import io.netty.util.ResourceLeakDetector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.security.GeneralSecurityException;
 import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author BlackyPaw
@@ -27,6 +41,16 @@ public class Main {
 	private static int port = 19132;
 	private static String bindAddress = "0.0.0.0";
 	private static int listenPort = 19132;
+	private static int networkWorkers = 0;
+	private static boolean leakDetection = false;
+	private static CompressionSettings clientCompression = new CompressionSettings();
+	private static CompressionSettings serverCompression = new CompressionSettings();
+	private static SelfVerificationPolicy selfVerificationPolicy = SelfVerificationPolicy.SAMPLED;
+	private static String keyDumpFile;
+	private static int keyRotationHours = 0;
+	private static List<String> backendSpecs = new ArrayList<>();
+	private static BalancingStrategy balancingStrategy = BalancingStrategy.LEAST_CONNECTIONS;
+	private static int backendCap = 0;
 
 	/**
 	 * Main entry point for the application.
@@ -41,14 +65,59 @@ public class Main {
 		// Enable reflection access to JDK NIO buffers for netty
 		System.setProperty( "io.netty.tryReflectionSetAccessible","true");
 
+		if ( leakDetection ) {
+			// Track every buffer allocation so leaked batch buffers get reported with their access points
+			ResourceLeakDetector.setLevel( ResourceLeakDetector.Level.PARANOID );
+			logger.warn( "Paranoid buffer leak detection enabled, this is slow and only meant for testing" );
+		}
+
 		Security.addProvider( new org.bouncycastle.jce.provider.BouncyCastleProvider() );
 		
-		// Generate proxy keypair:
-		EncryptionHandler.generateEncryptionKeys();
+		// Load or generate proxy keypair:
+		ProxyKeyStore keyStore = new ProxyKeyStore( new File( "server.keys" ), new File( "server.public.key" ) );
+		try {
+			keyStore.load();
+		} catch ( GeneralSecurityException e ) {
+			logger.error( "It seems you have not installed a recent version of BouncyCastle; please ensure that your version supports EC Key-Pair-Generation using the secp384r1 curve", e );
+			return;
+		}
+
+		if ( keyRotationHours > 0 ) {
+			keyStore.scheduleRotation( keyRotationHours, TimeUnit.HOURS );
+		}
+
+		EncryptionHandler.setKeyStore( keyStore );
+
+		if ( keyDumpFile != null ) {
+			EncryptionHandler.setKeyDumpSink( new AsyncFileSink( new File( keyDumpFile ), 1024, 16 * 1024 * 1024, 5 ) );
+			logger.warn( "Dumping client public keys to " + keyDumpFile + ", this is only meant for debugging" );
+		}
 
 		new AssetAssembler();
 
-		Proxy proxy = new Proxy( ip, port );
+		List<Backend> backends = new ArrayList<>();
+		if ( ip != null ) {
+			backends.add( new Backend( new InetSocketAddress( ip, port ), 1, backendCap ) );
+		}
+
+		for ( String spec : backendSpecs ) {
+			String[] parts = spec.split( ":" );
+			int weight = parts.length == 3 ? Integer.parseInt( parts[2] ) : 1;
+			backends.add( new Backend( new InetSocketAddress( parts[0], Integer.parseInt( parts[1] ) ), weight, backendCap ) );
+		}
+
+		logger.info( "Routing players to " + backends.size() + " backend server(s) using " + balancingStrategy );
+
+		Proxy proxy = new Proxy( new BackendPool( backends, balancingStrategy ), networkWorkers );
+		proxy.getConnectionManager().setClientCompression( clientCompression );
+		proxy.getConnectionManager().setServerCompression( serverCompression );
+		proxy.getConnectionManager().setSelfVerificationPolicy( selfVerificationPolicy );
+
+		Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+			proxy.close();
+			keyStore.close();
+		}, "Proxy Shutdown" ) );
+
 		try {
 			proxy.bind( bindAddress, listenPort );
 		} catch (SocketException e) {
@@ -105,6 +174,116 @@ public class Main {
 					logger.error( "Malformed '--lport' command line option: Please specify actual IP value" );
 					return false;
 				}
+			} else if ( args[i].startsWith( "--workers" ) ) {
+				String[] split = args[i].split( "=" );
+				if ( split.length == 2 ) {
+					try {
+						networkWorkers = Integer.valueOf( split[1] );
+						if ( networkWorkers < 0 ) {
+							throw new NumberFormatException();
+						}
+					} catch ( NumberFormatException e ) {
+						logger.error( "Malformed '--workers' command line option: Please specify valid integer worker count (0 = amount of cores)" );
+						return false;
+					}
+				} else {
+					logger.error( "Malformed '--workers' command line option: Please specify actual worker count" );
+					return false;
+				}
+			} else if ( args[i].startsWith( "--client-compression" ) || args[i].startsWith( "--server-compression" ) ) {
+				String[] split = args[i].split( "=" );
+				String option = split[0];
+				if ( split.length == 2 ) {
+					try {
+						if ( option.equals( "--client-compression" ) ) {
+							clientCompression = CompressionSettings.parse( split[1] );
+						} else {
+							serverCompression = CompressionSettings.parse( split[1] );
+						}
+					} catch ( IllegalArgumentException e ) {
+						logger.error( "Malformed '" + option + "' command line option: Please specify native or zlib[:level[:threshold]]" );
+						return false;
+					}
+				} else {
+					logger.error( "Malformed '" + option + "' command line option: Please specify actual compression settings" );
+					return false;
+				}
+			} else if ( args[i].startsWith( "--self-verify" ) ) {
+				String[] split = args[i].split( "=" );
+				if ( split.length == 2 ) {
+					try {
+						selfVerificationPolicy = SelfVerificationPolicy.valueOf( split[1].toUpperCase() );
+					} catch ( IllegalArgumentException e ) {
+						logger.error( "Malformed '--self-verify' command line option: Please specify always, sampled or never" );
+						return false;
+					}
+				} else {
+					logger.error( "Malformed '--self-verify' command line option: Please specify actual policy" );
+					return false;
+				}
+			} else if ( args[i].startsWith( "--backend-cap" ) ) {
+				String[] split = args[i].split( "=" );
+				if ( split.length == 2 ) {
+					try {
+						backendCap = Integer.valueOf( split[1] );
+						if ( backendCap < 0 ) {
+							throw new NumberFormatException();
+						}
+					} catch ( NumberFormatException e ) {
+						logger.error( "Malformed '--backend-cap' command line option: Please specify valid integer player count (0 = no limit)" );
+						return false;
+					}
+				} else {
+					logger.error( "Malformed '--backend-cap' command line option: Please specify actual player count" );
+					return false;
+				}
+			} else if ( args[i].startsWith( "--backend" ) ) {
+				String[] split = args[i].split( "=" );
+				if ( split.length == 2 && split[1].matches( "[^:]+:\\d{1,5}(:[1-9]\\d{0,3})?" ) ) {
+					backendSpecs.add( split[1] );
+				} else {
+					logger.error( "Malformed '--backend' command line option: Please specify host:port[:weight]" );
+					return false;
+				}
+			} else if ( args[i].startsWith( "--balancing" ) ) {
+				String[] split = args[i].split( "=" );
+				if ( split.length == 2 ) {
+					try {
+						balancingStrategy = BalancingStrategy.parse( split[1] );
+					} catch ( IllegalArgumentException e ) {
+						logger.error( "Malformed '--balancing' command line option: Please specify least-connections, weighted-round-robin or consistent-hash" );
+						return false;
+					}
+				} else {
+					logger.error( "Malformed '--balancing' command line option: Please specify actual strategy" );
+					return false;
+				}
+			} else if ( args[i].startsWith( "--key-rotation" ) ) {
+				String[] split = args[i].split( "=" );
+				if ( split.length == 2 ) {
+					try {
+						keyRotationHours = Integer.valueOf( split[1] );
+						if ( keyRotationHours < 0 ) {
+							throw new NumberFormatException();
+						}
+					} catch ( NumberFormatException e ) {
+						logger.error( "Malformed '--key-rotation' command line option: Please specify valid integer hours (0 = never)" );
+						return false;
+					}
+				} else {
+					logger.error( "Malformed '--key-rotation' command line option: Please specify actual rotation interval" );
+					return false;
+				}
+			} else if ( args[i].startsWith( "--dump-keys" ) ) {
+				String[] split = args[i].split( "=" );
+				if ( split.length == 2 ) {
+					keyDumpFile = split[1];
+				} else {
+					logger.error( "Malformed '--dump-keys' command line option: Please specify actual file to dump keys into" );
+					return false;
+				}
+			} else if ( args[i].equals( "--leak-detection" ) ) {
+				leakDetection = true;
 			} else if ( args[i].startsWith( "--bind" ) ) {
 				String[] split = args[i].split( "=" );
 				if ( split.length == 2 ) {
@@ -119,8 +298,8 @@ public class Main {
 			}
 		}
 
-		if ( ip == null ) {
-			logger.error( "Missing obligatory command-line parameter '--ip'" );
+		if ( ip == null && backendSpecs.isEmpty() ) {
+			logger.error( "Missing obligatory command-line parameter '--ip' or '--backend'" );
 			return false;
 		}
 
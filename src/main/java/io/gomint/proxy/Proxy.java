@@ -11,10 +11,11 @@ import io.gomint.jraknet.ServerSocket;
 import io.gomint.jraknet.SocketEventHandler;
 import io.gomint.proxy.network.ClientSocketEventHandler;
 import io.gomint.proxy.network.ConnectionManager;
+import io.gomint.proxy.network.backend.BackendDiscovery;
+import io.gomint.proxy.network.backend.BackendPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.InetSocketAddress;
 import java.net.SocketException;
 
 /**
@@ -25,17 +26,24 @@ public class Proxy {
 	
 	private final Logger logger = LoggerFactory.getLogger( Proxy.class );
 	
-	private final InetSocketAddress fallbackServer;
+	private final BackendPool backendPool;
+	private final BackendDiscovery backendDiscovery;
 	
 	private final ConnectionManager connectionManager;
 	
 	private final ServerSocket       server;
 	private final SocketEventHandler socketEventHandler;
 	
-	Proxy( String host, int port ) {
-		this.fallbackServer = new InetSocketAddress( host, port );
+	Proxy( BackendPool backendPool, int networkWorkers ) {
+		this.backendPool = backendPool;
+		this.backendDiscovery = new BackendDiscovery( backendPool );
+		try {
+			this.backendDiscovery.start();
+		} catch ( SocketException e ) {
+			this.logger.warn( "Could not start backend discovery, every join will ping its backend first", e );
+		}
 		
-		this.connectionManager = new ConnectionManager( this );
+		this.connectionManager = new ConnectionManager( this, networkWorkers );
 		
 		this.socketEventHandler = new ClientSocketEventHandler( this.connectionManager );
 		this.server = new ServerSocket( 1 );
@@ -59,12 +67,40 @@ public class Proxy {
 	}
 	
 	/**
-	 * Gets the address of the fallback server.
+	 * Stops accepting players and closes all connections and background threads of the proxy.
+	 */
+	public void close() {
+		this.server.close();
+		this.backendDiscovery.close();
+		this.connectionManager.close();
+		this.logger.info( "Stopped server" );
+	}
+	
+	/**
+	 * Gets the connection manager which handles all proxied connections.
+	 *
+	 * @return The connection manager
+	 */
+	public ConnectionManager getConnectionManager() {
+		return this.connectionManager;
+	}
+	
+	/**
+	 * Gets the backend servers players are spread over.
+	 *
+	 * @return The backend pool
+	 */
+	public BackendPool getBackendPool() {
+		return this.backendPool;
+	}
+	
+	/**
+	 * Gets the cache of the game addresses the backend servers advertise.
 	 *
-	 * @return The address of the fallback server
+	 * @return The backend discovery
 	 */
-	public InetSocketAddress getFallbackServer() {
-		return this.fallbackServer;
+	public BackendDiscovery getBackendDiscovery() {
+		return this.backendDiscovery;
 	}
 	
 }
@@ -32,6 +32,7 @@ import java.util.UUID;
 public class AssetAssembler {
 
   private static final NBTTagCompound compound = new NBTTagCompound("");
+  private static volatile boolean legacyItemsWritten;
 
   static {
     File file = new File("assets.dat");
@@ -152,6 +153,17 @@ public class AssetAssembler {
       l.addValue("id", itemLegacyId.getData());
       nbtTags.add(l);
     }
+
+    legacyItemsWritten = true;
+  }
+
+  /**
+   * Check if the legacy item table has already been captured
+   *
+   * @return true when {@link #writeLegacyItems(List)} has been called before
+   */
+  public static boolean hasLegacyItems() {
+    return legacyItemsWritten;
   }
 
   public static synchronized void writeBlockPalette(List<Object> blockPalette) {
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.jwt;
+
+import lombok.Getter;
+
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Immutable outcome of validating a client's login chain with the {@link MojangChainValidator}. Validation only
+ * depends on the chain itself, so results can be cached by the hash of the chain and shared between logins.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+@Getter
+public class ChainValidationResult {
+
+    private final boolean xboxLiveLogin;
+    private final String username;
+    private final UUID uuid;
+    private final String xboxId;
+    private final ECPublicKey clientPublicKey;
+    private final Map<String, PublicKey> trustedKeys;
+
+    /**
+     * Snapshot the result of a validator on which {@link MojangChainValidator#validate()} has been called
+     *
+     * @param validator     which validated the chain
+     * @param xboxLiveLogin result of the validation
+     */
+    public ChainValidationResult( MojangChainValidator validator, boolean xboxLiveLogin ) {
+        this.xboxLiveLogin = xboxLiveLogin;
+        this.username = validator.getUsername();
+        this.uuid = validator.getUUID();
+        this.xboxId = validator.getXboxId();
+        this.clientPublicKey = validator.getClientPublicKey();
+        this.trustedKeys = Collections.unmodifiableMap( new HashMap<>( validator.getTrustedKeys() ) );
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.jwt;
+
+import javax.crypto.KeyAgreement;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
+import java.security.Signature;
+
+/**
+ * Per thread instances of the BouncyCastle crypto primitives used during logins. Looking them up through the JCA
+ * provider list is way more expensive than the actual operation, and the instances are not thread safe, so every
+ * thread keeps its own. They are (re-)initialized with {@code init*} before every use, which resets any previous
+ * state.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+public final class CryptoPrimitives {
+
+    private static final ThreadLocal<Signature> ES384_SIGNATURE = new ThreadLocal<>();
+    private static final ThreadLocal<KeyAgreement> ECDH_KEY_AGREEMENT = new ThreadLocal<>();
+    private static final ThreadLocal<KeyFactory> ECDH_KEY_FACTORY = new ThreadLocal<>();
+
+    // SecureRandom is thread safe, seeding a new one per client is what costs
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    private CryptoPrimitives() {
+        throw new AssertionError( "Do not instantiate" );
+    }
+
+    /**
+     * Get the SHA384withECDSA signature of the calling thread
+     *
+     * @return signature instance, has to be initialized before use
+     * @throws NoSuchAlgorithmException when BouncyCastle does not support ES384
+     * @throws NoSuchProviderException  when BouncyCastle is not installed
+     */
+    public static Signature es384Signature() throws NoSuchAlgorithmException, NoSuchProviderException {
+        Signature signature = ES384_SIGNATURE.get();
+        if ( signature == null ) {
+            signature = Signature.getInstance( "SHA384withECDSA", "BC" );
+            ES384_SIGNATURE.set( signature );
+        }
+
+        return signature;
+    }
+
+    /**
+     * Get the ECDH key agreement of the calling thread
+     *
+     * @return key agreement instance, has to be initialized before use
+     * @throws NoSuchAlgorithmException when BouncyCastle does not support ECDH
+     * @throws NoSuchProviderException  when BouncyCastle is not installed
+     */
+    public static KeyAgreement ecdhKeyAgreement() throws NoSuchAlgorithmException, NoSuchProviderException {
+        KeyAgreement keyAgreement = ECDH_KEY_AGREEMENT.get();
+        if ( keyAgreement == null ) {
+            keyAgreement = KeyAgreement.getInstance( "ECDH", "BC" );
+            ECDH_KEY_AGREEMENT.set( keyAgreement );
+        }
+
+        return keyAgreement;
+    }
+
+    /**
+     * Get the ECDH key factory of the calling thread
+     *
+     * @return key factory instance
+     * @throws NoSuchAlgorithmException when BouncyCastle does not support ECDH
+     * @throws NoSuchProviderException  when BouncyCastle is not installed
+     */
+    public static KeyFactory ecdhKeyFactory() throws NoSuchAlgorithmException, NoSuchProviderException {
+        KeyFactory keyFactory = ECDH_KEY_FACTORY.get();
+        if ( keyFactory == null ) {
+            keyFactory = KeyFactory.getInstance( "ECDH", "BC" );
+            ECDH_KEY_FACTORY.set( keyFactory );
+        }
+
+        return keyFactory;
+    }
+
+    /**
+     * Get the shared secure random
+     *
+     * @return secure random, safe to use from any thread
+     */
+    public static SecureRandom secureRandom() {
+        return SECURE_RANDOM;
+    }
+
+}
@@ -32,6 +32,22 @@ public interface JwtSignature {
 	 */
 	boolean validate( Key key, byte[] signature, byte[] digest ) throws JwtSignatureException;
 	
+	/**
+	 * Validates a signature over a range of the given bytes, so the signed part of a token does not have to be copied.
+	 * <p>
+	 * See {@link #validate(Key, byte[], byte[])} as for why this method uses Key as type for the key parameter.
+	 *
+	 * @param key       The key to be used to verify the signature
+	 * @param data      The bytes containing the signed data
+	 * @param offset    The offset of the signed data
+	 * @param length    The length of the signed data
+	 * @param digest    The digest appended to a JWT token as proof
+	 *
+	 * @return Whether or not the signature could be validated successfully
+	 * @throws JwtSignatureException Thrown in case the signature could not be validated
+	 */
+	boolean validate( Key key, byte[] data, int offset, int length, byte[] digest ) throws JwtSignatureException;
+	
 	/**
 	 * Signs the given signature bytes and returns the encoded digest.
 	 * <p>
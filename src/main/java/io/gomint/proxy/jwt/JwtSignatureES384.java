@@ -24,10 +24,15 @@ class JwtSignatureES384 implements JwtSignature {
 	
 	@Override
 	public boolean validate( Key key, byte[] signatureBytes, byte[] digestBytes ) throws JwtSignatureException {
+		return this.validate( key, signatureBytes, 0, signatureBytes.length, digestBytes );
+	}
+	
+	@Override
+	public boolean validate( Key key, byte[] data, int offset, int length, byte[] digestBytes ) throws JwtSignatureException {
 		// Create signature and convert to PublicKey:
 		Signature signature;
 		try {
-			signature = Signature.getInstance( "SHA384withECDSA", "BC" );
+			signature = CryptoPrimitives.es384Signature();
 		} catch ( NoSuchAlgorithmException | NoSuchProviderException e ) {
 			throw new JwtSignatureException( "Could not create signature for ES384 algorithm", e );
 		}
@@ -42,7 +47,7 @@ class JwtSignatureES384 implements JwtSignature {
 		// Perform actual validation:
 		try {
 			signature.initVerify( publicKey );
-			signature.update( signatureBytes );
+			signature.update( data, offset, length );
 			return signature.verify( derSignature );
 		} catch ( SignatureException | InvalidKeyException e ) {
 			throw new JwtSignatureException( "Could not perform ES384 signature validation", e );
@@ -54,7 +59,7 @@ class JwtSignatureES384 implements JwtSignature {
 		// Create signature and convert to PrivateKey:
 		Signature signature;
 		try {
-			signature = Signature.getInstance( "SHA384withECDSA", "BC" );
+			signature = CryptoPrimitives.es384Signature();
 		} catch ( NoSuchAlgorithmException | NoSuchProviderException e ) {
 			throw new JwtSignatureException( "Could not create signature for ES384 algorithm", e );
 		}
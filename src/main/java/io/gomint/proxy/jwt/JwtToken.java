@@ -1,57 +1,197 @@
 package io.gomint.proxy.jwt;
 
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Minimalistic JWT library for use with Mojang's authentication mechanism.
+ * <p>
+ * Tokens are parsed with a streaming JSON parser which only keeps the header fields and claims the login needs. The
+ * signed part is not copied, the signature is verified against a range of the token's bytes.
  *
  * @author BlackyPaw
  * @version 1.0
  */
 public class JwtToken {
 	
-	@SuppressWarnings( "unchecked" )
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	
+	// Only these fields are kept, everything else is skipped while parsing
+	private static final Set<String> HEADER_FIELDS = new HashSet<>( Arrays.asList( "alg", "x5u" ) );
+	private static final Set<String> CLAIM_FIELDS = new HashSet<>( Arrays.asList( "identityPublicKey", "certificateAuthority", "extraData", "salt" ) );
+	
 	public static JwtToken parse( String s ) {
-		String[] split = s.split( "\\." );
-		if ( split.length != 3 ) {
+		// Tokens are base64 with dots in between, so they are ASCII
+		byte[] data = s.getBytes( StandardCharsets.US_ASCII );
+		
+		int headerEnd = indexOf( data, 0 );
+		int claimsEnd = headerEnd == -1 ? -1 : indexOf( data, headerEnd + 1 );
+		if ( claimsEnd == -1 || indexOf( data, claimsEnd + 1 ) != -1 ) {
 			throw new IllegalArgumentException( "Invalid JWT Token: Expecting exactly three parts delimited by dots '.'" );
 		}
 		
-		String jwtHeaderJson = new String( Base64.getDecoder().decode( split[0] ), StandardCharsets.UTF_8 );
-		String jwtClaimsJson = new String( Base64.getDecoder().decode( split[1] ), StandardCharsets.UTF_8 );
-		
-		JSONParser parser = new JSONParser();
-		Object     jwtHeaderRaw;
-		Object     jwtClaimsRaw;
+		Map<String, Object> header;
+		Map<String, Object> claims;
 		try {
-			jwtHeaderRaw = parser.parse( jwtHeaderJson );
-			jwtClaimsRaw = parser.parse( jwtClaimsJson );
-			
-			if ( !( jwtHeaderRaw instanceof JSONObject ) || !( jwtClaimsRaw instanceof JSONObject ) ) {
-				throw new ParseException( ParseException.ERROR_UNEXPECTED_TOKEN );
-			}
-		} catch ( ParseException e ) {
+			header = readObject( decode( data, 0, headerEnd ), HEADER_FIELDS );
+			claims = readObject( decode( data, headerEnd + 1, claimsEnd ), CLAIM_FIELDS );
+		} catch ( IOException e ) {
 			throw new IllegalArgumentException( "Invalid JWT Token: Expected Base-64 encoded JSON data" );
 		}
 		
 		JwtToken token = new JwtToken();
-		token.header = new JwtHeader( (JSONObject) jwtHeaderRaw );
-		token.claims = (JSONObject) jwtClaimsRaw;
-		token.signatureBytes = ( split[0] + '.' + split[1] ).getBytes( StandardCharsets.US_ASCII );
-		token.signatureDigest = Base64.getUrlDecoder().decode( split[2] );
+		token.header = new JwtHeader( header );
+		token.claims = claims;
+		token.signatureBytes = data;
+		token.signatureLength = claimsEnd;
+		token.signatureDigest = decode( data, claimsEnd + 1, data.length );
 		
 		return token;
 	}
 	
+	/**
+	 * Extracts the raw tokens of a login chain ({@code {"chain":["...", ...]}}) without parsing them.
+	 *
+	 * @param json The JSON string containing the chain
+	 *
+	 * @return The tokens of the chain in the order they have been sent
+	 * @throws IllegalArgumentException Thrown in case the JSON is invalid or contains no chain
+	 */
+	public static List<String> parseChain( String json ) {
+		try ( JsonParser parser = JSON_FACTORY.createParser( json ) ) {
+			if ( parser.nextToken() != JsonToken.START_OBJECT ) {
+				throw new IllegalArgumentException( "Invalid JWT Chain: Expected a JSON object" );
+			}
+			
+			while ( parser.nextToken() == JsonToken.FIELD_NAME ) {
+				String name = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if ( !"chain".equals( name ) || value != JsonToken.START_ARRAY ) {
+					parser.skipChildren();
+					continue;
+				}
+				
+				List<String> chain = new ArrayList<>( 3 );
+				while ( ( value = parser.nextToken() ) != JsonToken.END_ARRAY ) {
+					if ( value == JsonToken.VALUE_STRING ) {
+						chain.add( parser.getText() );
+					} else {
+						parser.skipChildren();
+					}
+				}
+				
+				return chain;
+			}
+		} catch ( IOException e ) {
+			throw new IllegalArgumentException( "Invalid JWT Chain: " + e.getMessage() );
+		}
+		
+		throw new IllegalArgumentException( "Invalid JWT Chain: Missing chain" );
+	}
+	
+	private static int indexOf( byte[] data, int from ) {
+		for ( int i = from; i < data.length; i++ ) {
+			if ( data[i] == '.' ) {
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	private static byte[] decode( byte[] data, int from, int to ) {
+		// Mojang uses the standard alphabet, tokens we forge ourselves use the URL safe one
+		Base64.Decoder decoder = Base64.getDecoder();
+		for ( int i = from; i < to; i++ ) {
+			if ( data[i] == '-' || data[i] == '_' ) {
+				decoder = Base64.getUrlDecoder();
+				break;
+			}
+		}
+		
+		ByteBuffer decoded = decoder.decode( ByteBuffer.wrap( data, from, to - from ) );
+		byte[] result = new byte[decoded.remaining()];
+		decoded.get( result );
+		return result;
+	}
+	
+	private static Map<String, Object> readObject( byte[] json, Set<String> fields ) throws IOException {
+		try ( JsonParser parser = JSON_FACTORY.createParser( json ) ) {
+			if ( parser.nextToken() != JsonToken.START_OBJECT ) {
+				throw new IOException( "Expected a JSON object" );
+			}
+			
+			return readFields( parser, fields );
+		}
+	}
+	
+	private static Map<String, Object> readFields( JsonParser parser, Set<String> fields ) throws IOException {
+		Map<String, Object> result = new HashMap<>();
+		JsonToken token;
+		while ( ( token = parser.nextToken() ) == JsonToken.FIELD_NAME ) {
+			String name = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+			if ( fields != null && !fields.contains( name ) ) {
+				parser.skipChildren();
+				continue;
+			}
+			
+			result.put( name, readValue( parser, value ) );
+		}
+		
+		if ( token != JsonToken.END_OBJECT ) {
+			throw new IOException( "Unexpected end of JSON object" );
+		}
+		
+		return result;
+	}
+	
+	private static Object readValue( JsonParser parser, JsonToken value ) throws IOException {
+		if ( value == null ) {
+			throw new IOException( "Unexpected end of JSON data" );
+		}
+		
+		switch ( value ) {
+			case VALUE_STRING:
+				return parser.getText();
+			case VALUE_NUMBER_INT:
+				return parser.getLongValue();
+			case VALUE_NUMBER_FLOAT:
+				return parser.getDoubleValue();
+			case VALUE_TRUE:
+				return Boolean.TRUE;
+			case VALUE_FALSE:
+				return Boolean.FALSE;
+			case START_OBJECT:
+				return readFields( parser, null );
+			case START_ARRAY:
+				List<Object> list = new ArrayList<>();
+				JsonToken element;
+				while ( ( element = parser.nextToken() ) != JsonToken.END_ARRAY ) {
+					list.add( readValue( parser, element ) );
+				}
+				return list;
+			default:
+				return null;
+		}
+	}
+	
 	private JwtHeader           header;
-	private JSONObject claims;
+	private Map<String, Object> claims;
 	
 	/*
 	 * We are caching the signature bytes for the following reason:
@@ -62,6 +202,7 @@ public class JwtToken {
 	 * the same.
 	 */
 	private byte[]              signatureBytes;
+	private int                 signatureLength;
 	private byte[]              signatureDigest;
 	
 	private JwtToken() {
@@ -77,12 +218,9 @@ public class JwtToken {
 		return this.header;
 	}
 
-	public JSONObject getClaims() {
-		return this.claims;
-	}
-	
 	/**
-	 * Gets a named property from the JwtToken's claim field if any such property exists.
+	 * Gets a named property from the JwtToken's claim field if any such property exists. Only the claims needed for
+	 * login validation are kept when parsing.
 	 *
 	 * @param key The name of the property to get
 	 *
@@ -139,7 +277,7 @@ public class JwtToken {
 	 */
 	public boolean validateSignature( JwtAlgorithm algorithm, Key key ) throws JwtSignatureException {
 		JwtSignature validator = algorithm.getSignature();
-		return validator.validate( key, this.signatureBytes, this.signatureDigest );
+		return validator.validate( key, this.signatureBytes, 0, this.signatureLength, this.signatureDigest );
 	}
 	
 }
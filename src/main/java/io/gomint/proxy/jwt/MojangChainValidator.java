@@ -7,10 +7,10 @@
 
 package io.gomint.proxy.jwt;
 
+import io.gomint.proxy.util.ExpiringCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PublicKey;
@@ -18,6 +18,11 @@ import java.security.interfaces.ECPublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author BlackyPaw
@@ -28,12 +33,14 @@ public class MojangChainValidator {
     private static final Logger LOGGER = LoggerFactory.getLogger( MojangChainValidator.class );
     private static final String MOJANG_TRUSTED_PUBLIC_KEY_BASE64 = "MHYwEAYHKoZIzj0CAQYFK4EEACIDYgAE8ELkixyLcwlZryUQcu1TvPOmI2B7vX83ndnWRUaXm74wFfa5f/lwQNTfrLVHa2PmenpGI6JhIMUJaWZrjmMj90NoKNFSNBuKdm8rYiXsfaz3K36x/1U26HpG0ZxK/V1V";
     private static final PublicKey MOJANG_TRUSTED_PUBLIC_KEY;
-    private static final KeyFactory ECDH_KEY_FACTORY;
+
+    // Mojang's intermediate keys and the proxy's own key show up in every login
+    private static final ExpiringCache<String, PublicKey> KEY_CACHE = new ExpiringCache<>( "Public key cache", 1024, 1, TimeUnit.HOURS );
 
     static {
-        KeyFactory keyFactory = null;
         try {
-            keyFactory = KeyFactory.getInstance( "ECDH", "BC" );
+            // Fail fast if BouncyCastle is missing
+            CryptoPrimitives.ecdhKeyFactory();
         } catch ( NoSuchAlgorithmException e ) {
             e.printStackTrace();
             System.err.println( "Could not find ECDH Key Factory - please ensure that you have installed the latest version of BouncyCastle" );
@@ -43,8 +50,6 @@ public class MojangChainValidator {
             System.err.println( "Could not find BouncyCastle Key Provider - please ensure that you have installed BouncyCastle properly" );
             System.exit( -1 );
         }
-        ECDH_KEY_FACTORY = keyFactory;
-
         MOJANG_TRUSTED_PUBLIC_KEY = createPublicKey( MOJANG_TRUSTED_PUBLIC_KEY_BASE64 );
         if ( MOJANG_TRUSTED_PUBLIC_KEY == null ) {
             System.err.println( "Could not generated public key for trusted Mojang key; please report this error in the GoMin.io forums for further assistance" );
@@ -54,13 +59,23 @@ public class MojangChainValidator {
 
     public static PublicKey createPublicKey( String base64 ) {
         try {
-            return ECDH_KEY_FACTORY.generatePublic( new X509EncodedKeySpec( Base64.getDecoder().decode( base64 ) ) );
-        } catch ( InvalidKeySpecException e ) {
+            return CryptoPrimitives.ecdhKeyFactory().generatePublic( new X509EncodedKeySpec( Base64.getDecoder().decode( base64 ) ) );
+        } catch ( InvalidKeySpecException | NoSuchAlgorithmException | NoSuchProviderException e ) {
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * Get the public key for the given base64 x5u value, decoded keys are cached.
+     *
+     * @param base64 The X.509 encoded key
+     * @return The public key or null if the value is not a valid key
+     */
+    public static PublicKey getCachedPublicKey( String base64 ) {
+        return KEY_CACHE.computeIfAbsent( base64, MojangChainValidator::createPublicKey );
+    }
+
     private List<JwtToken> chain;
 
     private String username;
@@ -68,6 +83,7 @@ public class MojangChainValidator {
     private String xboxId;
     private ECPublicKey clientPublicKey;
     private Map<String, PublicKey> trustedKeys = new HashMap<>();
+    private Executor executor;
 
     public MojangChainValidator() {
         this.chain = new ArrayList<>();
@@ -93,73 +109,92 @@ public class MojangChainValidator {
         return this.clientPublicKey;
     }
 
+    /**
+     * Set the executor on which the signatures of a chain are verified in parallel. It should reject work it can't
+     * start right away; without one (or when it rejects the work) the signatures are verified on the calling thread.
+     *
+     * @param executor which should run signature checks
+     */
+    public void setExecutor( Executor executor ) {
+        this.executor = executor;
+    }
+
     public boolean validate() {
         trustedKeys.put( MOJANG_TRUSTED_PUBLIC_KEY_BASE64, MOJANG_TRUSTED_PUBLIC_KEY );
 
-        List<JwtToken> unverified = new ArrayList<>( this.chain );
         boolean hasExtraData = false;
 
         try {
-            while ( !unverified.isEmpty() ) {
-                // Take advantage of the 'x5u' header field Mojang sends us with their chains
-                // This will tell us using which key a specific token has been signed and we can thus
-                // easily find the token in the chain which comes circularly dependant on its own claim.
-                // We hook into that dependency using what seems to be a constant non-changing public key
-                // of Mojang:
-
-                String x5u = null;
-                JwtToken nextToken = null;
-
-                for ( JwtToken token : unverified ) {
-                    x5u = token.getHeader().getProperty( String.class, "x5u" );
-                    if ( x5u == null ) {
-                        // This token comes unexpectedly - might be a faker:
-                        return false;
-                    }
-
-                    if ( trustedKeys.containsKey( x5u ) ) {
-                        nextToken = token;
-                        break;
-                    }
+            // Take advantage of the 'x5u' header field Mojang sends us with their chains
+            // This will tell us using which key a specific token has been signed and we can thus
+            // easily find the token in the chain which comes circularly dependant on its own claim.
+            // We hook into that dependency using what seems to be a constant non-changing public key
+            // of Mojang:
+            Map<String, List<JwtToken>> tokensByX5u = new HashMap<>();
+            for ( JwtToken token : this.chain ) {
+                String x5u = token.getHeader().getProperty( String.class, "x5u" );
+                if ( x5u == null ) {
+                    // This token comes unexpectedly - might be a faker:
+                    return false;
                 }
 
-                if ( nextToken == null ) {
-                    // No further tokens which could be verified -> yet there are still tokens in the unverified set:
-                    return false;
+                tokensByX5u.computeIfAbsent( x5u, k -> new ArrayList<>( 1 ) ).add( token );
+            }
+
+            // Order the chain by walking from the trusted keys along the keys each certificate authority trusts
+            List<JwtToken> ordered = new ArrayList<>( this.chain.size() );
+            List<PublicKey> signers = new ArrayList<>( this.chain.size() );
+            Map<String, PublicKey> reachable = new HashMap<>( this.trustedKeys );
+            Deque<String> pending = new ArrayDeque<>( reachable.keySet() );
+            while ( !pending.isEmpty() ) {
+                String x5u = pending.poll();
+                List<JwtToken> signed = tokensByX5u.remove( x5u );
+                if ( signed == null ) {
+                    continue;
                 }
 
-                try {
-                    // We always use ES384 independently of what the client sent us in order to prevent algorithm exchange
-                    // attacks as described here: https://auth0.com/blog/critical-vulnerabilities-in-json-web-token-libraries/
-                    if ( !nextToken.validateSignature( JwtAlgorithm.ES384, trustedKeys.get( x5u ) ) ) {
-                        // Seems to be a forged token:
-                        return false;
+                for ( JwtToken token : signed ) {
+                    ordered.add( token );
+                    signers.add( reachable.get( x5u ) );
+
+                    String identityPublicKeyBase64 = this.getTrustedIdentityKey( token );
+                    if ( identityPublicKeyBase64 != null && !reachable.containsKey( identityPublicKeyBase64 ) ) {
+                        PublicKey key = getCachedPublicKey( identityPublicKeyBase64 );
+                        if ( key != null ) {
+                            reachable.put( identityPublicKeyBase64, key );
+                            pending.add( identityPublicKeyBase64 );
+                        }
                     }
-                } catch ( JwtSignatureException e ) {
-                    e.printStackTrace();
-                    return false;
                 }
+            }
 
-                unverified.remove( nextToken );
+            if ( ordered.size() != this.chain.size() ) {
+                // No further tokens which could be verified -> yet there are still tokens in the unverified set:
+                return false;
+            }
+
+            if ( !this.verifySignatures( ordered, signers ) ) {
+                // Seems to be a forged token:
+                return false;
+            }
 
+            for ( JwtToken token : ordered ) {
                 // This token is valid -> add its public key to the set of trusted keys if it specifies any and has its
                 // certificateAuthority flag set:
-                Boolean certificateAuthority = nextToken.getClaim( Boolean.class, "certificateAuthority" );
-                String identityPublicKeyBase64 = nextToken.getClaim( String.class, "identityPublicKey" );
-
-                if ( ( certificateAuthority != null && !certificateAuthority ) || identityPublicKeyBase64 == null ) {
+                String identityPublicKeyBase64 = this.getTrustedIdentityKey( token );
+                if ( identityPublicKeyBase64 == null ) {
                     // No public key to trust here:
                     continue;
                 }
 
                 // This certificate authority wants us to add its public key:
-                PublicKey key = createPublicKey( identityPublicKeyBase64 );
+                PublicKey key = reachable.get( identityPublicKeyBase64 );
                 if ( key != null ) {
                     trustedKeys.put( identityPublicKeyBase64, key );
                 }
 
                 // Check, if this token provides us with client details:
-                Map<String, Object> extraData = nextToken.getClaim( Map.class, "extraData" );
+                Map<String, Object> extraData = token.getClaim( Map.class, "extraData" );
                 if ( extraData != null && !hasExtraData ) {
                     hasExtraData = true;
                     this.clientPublicKey = (ECPublicKey) key;
@@ -179,6 +214,68 @@ public class MojangChainValidator {
         }
     }
 
+    private String getTrustedIdentityKey( JwtToken token ) {
+        Boolean certificateAuthority = token.getClaim( Boolean.class, "certificateAuthority" );
+        if ( certificateAuthority != null && !certificateAuthority ) {
+            return null;
+        }
+
+        return token.getClaim( String.class, "identityPublicKey" );
+    }
+
+    /**
+     * Verify the signatures of all tokens. Signatures don't depend on each other once the chain is ordered, so all
+     * but the first are handed to the executor. Checks the executor rejected or did not start yet are run by the
+     * calling thread, so validation never waits for a queue.
+     *
+     * @param tokens  ordered tokens of the chain
+     * @param signers key which signed the token at the same index
+     * @return true when all signatures are valid
+     */
+    private boolean verifySignatures( List<JwtToken> tokens, List<PublicKey> signers ) {
+        List<FutureTask<Boolean>> tasks = new ArrayList<>( tokens.size() );
+        for ( int i = 0; i < tokens.size(); i++ ) {
+            JwtToken token = tokens.get( i );
+            PublicKey signer = signers.get( i );
+
+            // We always use ES384 independently of what the client sent us in order to prevent algorithm exchange
+            // attacks as described here: https://auth0.com/blog/critical-vulnerabilities-in-json-web-token-libraries/
+            FutureTask<Boolean> task = new FutureTask<>( () -> token.validateSignature( JwtAlgorithm.ES384, signer ) );
+            if ( i > 0 && this.executor != null ) {
+                try {
+                    this.executor.execute( task );
+                } catch ( RejectedExecutionException ignored ) {
+                    // Run by the calling thread below
+                }
+            }
+
+            tasks.add( task );
+        }
+
+        boolean valid = true;
+        for ( FutureTask<Boolean> task : tasks ) {
+            if ( !valid ) {
+                task.cancel( false );
+                continue;
+            }
+
+            // Does nothing when the executor already started the task
+            task.run();
+
+            try {
+                valid = task.get();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                valid = false;
+            } catch ( ExecutionException e ) {
+                e.getCause().printStackTrace();
+                valid = false;
+            }
+        }
+
+        return valid;
+    }
+
     private void detectClientInformationUnsafe() {
         for ( JwtToken token : this.chain ) {
             String identityPublicKeyBase64 = token.getClaim( String.class, "identityPublicKey" );
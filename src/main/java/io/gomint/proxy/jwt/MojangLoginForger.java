@@ -7,124 +7,216 @@
 
 package io.gomint.proxy.jwt;
 
-import org.json.simple.JSONObject;
+import io.gomint.proxy.util.ExpiringCache;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
-import java.security.PrivateKey;
-import java.security.PublicKey;
+import java.security.KeyPair;
 import java.util.Base64;
 import java.util.UUID;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Helper class to create a non-authenticated JWT chain.
+ * <p>
+ * One forger is bound to one key pair. The token header only depends on the public key so it is encoded once, the
+ * claims are written by hand instead of building a JSON object graph and the forged chain of a player is cached, so a
+ * login to a backend only needs to sign the skin token.
  *
  * @author BlackyPaw
  * @version 1.0
  */
 public class MojangLoginForger {
 
-    private String username;
-    private UUID uuid;
-    private PublicKey publicKey;
-    private JSONObject skinData;
-
-    public void setUsername( String username ) {
-        this.username = username;
+    private static final long TOKEN_VALIDITY = TimeUnit.HOURS.toMillis( 24 );
+    private static final byte[] CHAIN_PREFIX = "{\"chain\":[\"".getBytes( StandardCharsets.US_ASCII );
+    private static final byte[] CHAIN_SUFFIX = "\"]}".getBytes( StandardCharsets.US_ASCII );
+
+    private final KeyPair keyPair;
+    private final String publicKeyBase64;
+    private final byte[] headerSegment;
+
+    // Chains are valid for a day, players switching servers or reconnecting within the hour reuse theirs
+    private final ExpiringCache<String, byte[]> chainCache = new ExpiringCache<>( "Forged chain cache", 4096, 1, TimeUnit.HOURS );
+
+    /**
+     * Create a new forger which signs with the given key pair
+     *
+     * @param keyPair which is used to sign and whose public key is announced in the tokens
+     */
+    public MojangLoginForger( KeyPair keyPair ) {
+        this.keyPair = keyPair;
+        this.publicKeyBase64 = Base64.getEncoder().encodeToString( keyPair.getPublic().getEncoded() );
+
+        StringBuilder header = new StringBuilder( 256 );
+        header.append( "{\"alg\":" );
+        appendString( header, JwtAlgorithm.ES384.getJwtName() );
+        header.append( ",\"x5u\":" );
+        appendString( header, this.publicKeyBase64 );
+        header.append( '}' );
+
+        this.headerSegment = encodeSegment( header );
     }
 
-    public void setUUID( UUID uuid ) {
-        this.uuid = uuid;
+    public KeyPair getKeyPair() {
+        return this.keyPair;
     }
 
-    public void setPublicKey( PublicKey publicKey ) {
-        this.publicKey = publicKey;
+    public ExpiringCache<String, byte[]> getChainCache() {
+        return this.chainCache;
     }
 
-    @SuppressWarnings( "unchecked" )
-    public String forge( PrivateKey privateKey ) {
-        final JwtAlgorithm algorithm = JwtAlgorithm.ES384;
-
-        // Convert our public key to Base64:
-        String publicKeyBase64 = Base64.getEncoder().encodeToString( this.publicKey.getEncoded() );
-
-        // Construct JSON WebToken:
-        JSONObject header = new JSONObject();
-        header.put( "alg", algorithm.getJwtName() );
-        header.put( "x5u", publicKeyBase64 );
-
-        long timestamp = System.currentTimeMillis();
-
-        JSONObject claims = new JSONObject();
-        claims.put( "nbf", timestamp );
-        claims.put( "exp", timestamp + 24 * 60 * 60 * 1000 );
-        claims.put( "iat", timestamp + 24 * 60 * 60 * 1000 );
-        claims.put( "iss", "self" );
-        claims.put( "certificateAuthority", true );
-
-        JSONObject extraData = new JSONObject();
-        extraData.put( "displayName", this.username );
-        extraData.put( "identity", this.uuid.toString() );
+    /**
+     * Build the payload of a login packet for the given player
+     *
+     * @param username   of the player
+     * @param uuid       of the player
+     * @param skinClaims base64url encoded claims segment of the skin token the client sent
+     * @return payload containing the chain and skin token or null when signing failed
+     */
+    public byte[] forgeLoginPayload( String username, UUID uuid, byte[] skinClaims ) {
+        byte[] chain = this.forge( username, uuid );
+        byte[] skin = this.forgeSkin( skinClaims );
+        if ( chain == null || skin == null ) {
+            return null;
+        }
 
-        claims.put( "extraData", extraData );
-        claims.put( "identityPublicKey", publicKeyBase64 );
+        int chainLength = CHAIN_PREFIX.length + chain.length + CHAIN_SUFFIX.length;
+        ByteBuffer byteBuffer = ByteBuffer.allocate( 4 + chainLength + 4 + skin.length );
+        byteBuffer.order( ByteOrder.LITTLE_ENDIAN );
+        byteBuffer.putInt( chainLength );
+        byteBuffer.put( CHAIN_PREFIX );
+        byteBuffer.put( chain );
+        byteBuffer.put( CHAIN_SUFFIX );
+
+        // We need the skin
+        byteBuffer.putInt( skin.length );
+        byteBuffer.put( skin );
+        return byteBuffer.array();
+    }
 
-        StringBuilder builder = new StringBuilder();
-        builder.append( Base64.getUrlEncoder().encodeToString( header.toJSONString().getBytes( StandardCharsets.UTF_8 ) ) );
-        builder.append( '.' );
-        builder.append( Base64.getUrlEncoder().encodeToString( claims.toJSONString().getBytes( StandardCharsets.UTF_8 ) ) );
+    /**
+     * Forge the identity token of the given player. The returned array is shared and must not be modified.
+     *
+     * @param username of the player
+     * @param uuid     of the player
+     * @return ASCII bytes of the signed token or null when signing failed
+     */
+    public byte[] forge( String username, UUID uuid ) {
+        return this.chainCache.computeIfAbsent( uuid.toString() + ':' + username, key -> {
+            long timestamp = System.currentTimeMillis();
+
+            StringBuilder claims = new StringBuilder( 512 );
+            claims.append( "{\"nbf\":" ).append( timestamp );
+            claims.append( ",\"exp\":" ).append( timestamp + TOKEN_VALIDITY );
+            claims.append( ",\"iat\":" ).append( timestamp + TOKEN_VALIDITY );
+            claims.append( ",\"iss\":\"self\",\"certificateAuthority\":true,\"extraData\":{\"displayName\":" );
+            appendString( claims, username );
+            claims.append( ",\"identity\":" );
+            appendString( claims, uuid.toString() );
+            claims.append( "},\"identityPublicKey\":" );
+            appendString( claims, this.publicKeyBase64 );
+            claims.append( '}' );
+
+            return this.sign( encodeSegment( claims ) );
+        } );
+    }
 
-        // Sign the token:
-        byte[] signatureBytes = builder.toString().getBytes( StandardCharsets.US_ASCII );
-        byte[] signatureDigest;
+    /**
+     * Forge the skin token. The claims the client sent are taken over without parsing the JSON, only the segment is
+     * brought into the base64url alphabet without padding if the client used another one.
+     *
+     * @param skinClaims claims segment of the skin token the client sent, standard or url alphabet, padded or not
+     * @return ASCII bytes of the signed token or null when signing failed
+     */
+    public byte[] forgeSkin( byte[] skinClaims ) {
+        byte[] claimsSegment;
         try {
-            signatureDigest = algorithm.getSignature().sign( privateKey, signatureBytes );
-        } catch ( JwtSignatureException e ) {
+            claimsSegment = toUrlSegment( skinClaims );
+        } catch ( IllegalArgumentException e ) {
             e.printStackTrace();
             return null;
         }
 
-        builder.append( '.' );
-        builder.append( Base64.getUrlEncoder().encodeToString( signatureDigest ) );
-
-        return builder.toString();
+        return this.sign( claimsSegment );
     }
 
-    @SuppressWarnings( "unchecked" )
-    public String forgeSkin( PrivateKey privateKey ) {
-        final JwtAlgorithm algorithm = JwtAlgorithm.ES384;
-
-        // Convert our public key to Base64:
-        String publicKeyBase64 = Base64.getEncoder().encodeToString( this.publicKey.getEncoded() );
-
-        // Construct JSON WebToken:
-        JSONObject header = new JSONObject();
-        header.put( "alg", algorithm.getJwtName() );
-        header.put( "x5u", publicKeyBase64 );
-
-        StringBuilder builder = new StringBuilder();
-        builder.append( Base64.getUrlEncoder().encodeToString( header.toJSONString().getBytes( StandardCharsets.UTF_8 ) ) );
-        builder.append( '.' );
-        builder.append( Base64.getUrlEncoder().encodeToString( this.skinData.toJSONString().getBytes( StandardCharsets.UTF_8 ) ) );
+    private byte[] sign( byte[] claimsSegment ) {
+        byte[] signatureBytes = new byte[this.headerSegment.length + 1 + claimsSegment.length];
+        System.arraycopy( this.headerSegment, 0, signatureBytes, 0, this.headerSegment.length );
+        signatureBytes[this.headerSegment.length] = '.';
+        System.arraycopy( claimsSegment, 0, signatureBytes, this.headerSegment.length + 1, claimsSegment.length );
 
         // Sign the token:
-        byte[] signatureBytes = builder.toString().getBytes( StandardCharsets.US_ASCII );
         byte[] signatureDigest;
         try {
-            signatureDigest = algorithm.getSignature().sign( privateKey, signatureBytes );
+            signatureDigest = JwtAlgorithm.ES384.getSignature().sign( this.keyPair.getPrivate(), signatureBytes );
         } catch ( JwtSignatureException e ) {
             e.printStackTrace();
             return null;
         }
 
-        builder.append( '.' );
-        builder.append( Base64.getUrlEncoder().encodeToString( signatureDigest ) );
+        byte[] signatureSegment = Base64.getUrlEncoder().encode( signatureDigest );
+        byte[] token = new byte[signatureBytes.length + 1 + signatureSegment.length];
+        System.arraycopy( signatureBytes, 0, token, 0, signatureBytes.length );
+        token[signatureBytes.length] = '.';
+        System.arraycopy( signatureSegment, 0, token, signatureBytes.length + 1, signatureSegment.length );
+        return token;
+    }
+
+    private static byte[] toUrlSegment( byte[] segment ) {
+        boolean standard = false;
+        boolean padded = false;
+        for ( byte b : segment ) {
+            if ( b == '+' || b == '/' ) {
+                standard = true;
+            } else if ( b == '=' ) {
+                padded = true;
+            }
+        }
+
+        if ( !standard && !padded ) {
+            return segment;
+        }
+
+        byte[] decoded = ( standard ? Base64.getDecoder() : Base64.getUrlDecoder() ).decode( segment );
+        return Base64.getUrlEncoder().withoutPadding().encode( decoded );
+    }
 
-        return builder.toString();
+    private static byte[] encodeSegment( CharSequence json ) {
+        return Base64.getUrlEncoder().encode( json.toString().getBytes( StandardCharsets.UTF_8 ) );
     }
 
-    public void setSkinData( JSONObject skinData ) {
-        this.skinData = skinData;
+    private static void appendString( StringBuilder builder, String value ) {
+        builder.append( '"' );
+        for ( int i = 0; i < value.length(); i++ ) {
+            char c = value.charAt( i );
+            switch ( c ) {
+                case '"':
+                    builder.append( "\\\"" );
+                    break;
+                case '\\':
+                    builder.append( "\\\\" );
+                    break;
+                case '\n':
+                    builder.append( "\\n" );
+                    break;
+                case '\r':
+                    builder.append( "\\r" );
+                    break;
+                case '\t':
+                    builder.append( "\\t" );
+                    break;
+                default:
+                    if ( c < 0x20 ) {
+                        builder.append( String.format( "\\u%04x", (int) c ) );
+                    } else {
+                        builder.append( c );
+                    }
+            }
+        }
+        builder.append( '"' );
     }
 
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.jwt;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides if tokens the proxy signed itself get verified again before they are sent. Verifying catches a broken key
+ * pair or signer, but costs an ECDSA verification per login.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+public enum SelfVerificationPolicy {
+
+    /**
+     * Verify every self-issued token
+     */
+    ALWAYS,
+
+    /**
+     * Verify one out of {@link #SAMPLE_RATE} self-issued tokens, enough to notice a broken signer
+     */
+    SAMPLED,
+
+    /**
+     * Never verify self-issued tokens
+     */
+    NEVER;
+
+    /**
+     * One out of this many tokens is verified by {@link #SAMPLED}
+     */
+    public static final int SAMPLE_RATE = 100;
+
+    /**
+     * Check if the next self-issued token should be verified
+     *
+     * @return true when the token should be verified
+     */
+    public boolean shouldVerify() {
+        switch ( this ) {
+            case ALWAYS:
+                return true;
+            case SAMPLED:
+                return ThreadLocalRandom.current().nextInt( SAMPLE_RATE ) == 0;
+            default:
+                return false;
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+import io.gomint.proxy.network.compression.CompressionSettings;
+import io.gomint.proxy.network.compression.CompressionType;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Turns the uncompressed content of a batch into the wire format (compressed and, once enabled, encrypted) or the
+ * other way around. Every direction of a connection owns one processor, they are not thread safe.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+interface BatchProcessor {
+
+    /**
+     * Create a processor for the given settings
+     *
+     * @param settings of the link the processor is used for
+     * @param encode   true for outgoing batches, false for incoming ones
+     * @return new processor
+     */
+    static BatchProcessor create( CompressionSettings settings, boolean encode ) {
+        if ( settings.getType() == CompressionType.ZLIB ) {
+            return new JavaBatchProcessor( settings.createEngine(), encode );
+        }
+
+        return new NativeBatchProcessor( encode );
+    }
+
+    /**
+     * Enable encryption for all following batches
+     *
+     * @param key of the AES cipher
+     * @param iv  of the AES cipher
+     */
+    void enableCrypto( byte[] key, byte[] iv );
+
+    /**
+     * Encode or decode the readable bytes of the given buffer. The input is not released.
+     *
+     * @param in buffer to process
+     * @return new buffer owned by the caller
+     */
+    ByteBuf process( ByteBuf in );
+
+    /**
+     * Free all resources held by this processor
+     */
+    void close();
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Reusable buffer into which the uncompressed content of a batch is serialized. It remembers how much data recent
+ * batches needed (a decaying high-water mark) and pre-sizes itself to that, so the buffer neither has to grow while
+ * packets are written into it nor stays huge after a single burst.
+ * <p>
+ * Not thread safe, each direction of a connection owns one and only uses it from its network worker.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+class BatchScratchBuffer {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int SHRINK_FACTOR = 4;
+
+    private ByteBuf buffer;
+    private int highWaterMark = INITIAL_CAPACITY;
+
+    /**
+     * Get the buffer, cleared and sized to the current high-water mark
+     *
+     * @return empty buffer ready to be written into
+     */
+    ByteBuf acquire() {
+        if ( this.buffer == null ) {
+            this.buffer = PooledByteBufAllocator.DEFAULT.directBuffer( this.highWaterMark );
+        } else {
+            this.buffer.clear();
+            this.buffer.ensureWritable( this.highWaterMark );
+        }
+
+        return this.buffer;
+    }
+
+    /**
+     * Record how much of the buffer the last batch used. Shrinks the buffer when it is way bigger than what recent
+     * batches needed.
+     *
+     * @param used amount of bytes written into the buffer for the last batch
+     */
+    void recordUsage( int used ) {
+        // Decay slowly so single small batches don't undo the sizing for the next big one
+        this.highWaterMark = Math.max( INITIAL_CAPACITY, Math.max( used, this.highWaterMark - ( this.highWaterMark >> 4 ) ) );
+
+        if ( this.buffer != null && this.buffer.capacity() > this.highWaterMark * SHRINK_FACTOR ) {
+            this.buffer.release();
+            this.buffer = null;
+        }
+    }
+
+    /**
+     * Release the underlying buffer
+     */
+    void release() {
+        if ( this.buffer != null ) {
+            this.buffer.release();
+            this.buffer = null;
+        }
+    }
+
+}
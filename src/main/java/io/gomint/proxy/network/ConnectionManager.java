@@ -2,6 +2,9 @@ package io.gomint.proxy.network;
 
 import io.gomint.jraknet.Connection;
 import io.gomint.proxy.Proxy;
+import io.gomint.proxy.jwt.SelfVerificationPolicy;
+import io.gomint.proxy.network.backend.BackendSocketProvider;
+import io.gomint.proxy.network.compression.CompressionSettings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,57 +16,174 @@ import java.util.concurrent.ConcurrentHashMap;
  * @version 1.0
  */
 public class ConnectionManager {
-	
-	private final Logger logger = LoggerFactory.getLogger( ConnectionManager.class );
-	private final Proxy  proxy;
-	private final Thread updateThread;
-	
-	private boolean                            closed;
+
+	// Logins waiting for a crypto thread, further logins are turned away
+	private static final int LOGIN_QUEUE_CAPACITY = 256;
+
+	private final Logger          logger = LoggerFactory.getLogger( ConnectionManager.class );
+	private final Proxy           proxy;
+	private final NetworkWorker[] workers;
+	private final FlushPolicy     flushPolicy = new FlushPolicy();
+	private final LoginExecutor   loginExecutor;
+	private final BackendSocketProvider backendSockets = new BackendSocketProvider();
+
+	private volatile SelfVerificationPolicy selfVerificationPolicy = SelfVerificationPolicy.SAMPLED;
+
+	private volatile CompressionSettings clientCompression = new CompressionSettings();
+	private volatile CompressionSettings serverCompression = new CompressionSettings();
+
 	private Map<Connection, ProxiedConnection> proxiesByClientConnection;
-	
-	public ConnectionManager( Proxy proxy ) {
+	/**
+	 * Creates a new connection manager which spreads its connections over the given amount of network workers.
+	 *
+	 * @param proxy       The proxy this manager belongs to
+	 * @param workerCount The amount of network worker shards, values below 1 size the shards to the available cores
+	 */
+	public ConnectionManager( Proxy proxy, int workerCount ) {
 		this.proxy = proxy;
-		this.updateThread = new Thread( this::updateLoop );
-		this.updateThread.setName( "NetworkWorker" );
-		this.closed = false;
 		this.proxiesByClientConnection = new ConcurrentHashMap<>();
-		
-		this.updateThread.start();
+
+		if ( workerCount < 1 ) {
+			workerCount = Runtime.getRuntime().availableProcessors();
+		}
+
+		this.workers = new NetworkWorker[workerCount];
+		for ( int i = 0; i < workerCount; i++ ) {
+			this.workers[i] = new NetworkWorker( "NetworkWorker #" + i );
+			this.workers[i].start();
+		}
+
+		this.logger.info( "Started " + workerCount + " network worker(s)" );
+
+		int loginThreads = Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 );
+		this.loginExecutor = new LoginExecutor( loginThreads, LOGIN_QUEUE_CAPACITY );
 	}
-	
+
 	public Proxy getProxy() {
 		return this.proxy;
 	}
-	
+
+	/**
+	 * Gets the policy deciding when queued packets are flushed into a batch. It may be changed at runtime.
+	 *
+	 * @return The flush policy used by all connections
+	 */
+	public FlushPolicy getFlushPolicy() {
+		return this.flushPolicy;
+	}
+
+	/**
+	 * Gets the compression settings used on links between clients and the proxy.
+	 *
+	 * @return The client link compression settings
+	 */
+	public CompressionSettings getClientCompression() {
+		return this.clientCompression;
+	}
+
+	/**
+	 * Sets the compression settings used on links between clients and the proxy. Only affects new connections.
+	 *
+	 * @param clientCompression The client link compression settings
+	 */
+	public void setClientCompression( CompressionSettings clientCompression ) {
+		this.clientCompression = clientCompression;
+	}
+
+	/**
+	 * Gets the compression settings used on links between the proxy and backend servers.
+	 *
+	 * @return The server link compression settings
+	 */
+	public CompressionSettings getServerCompression() {
+		return this.serverCompression;
+	}
+
+	/**
+	 * Sets the compression settings used on links between the proxy and backend servers. Only affects new
+	 * connections.
+	 *
+	 * @param serverCompression The server link compression settings
+	 */
+	public void setServerCompression( CompressionSettings serverCompression ) {
+		this.serverCompression = serverCompression;
+	}
+
+	/**
+	 * Gets the policy deciding if tokens forged by the proxy are verified again before they are sent.
+	 *
+	 * @return The self verification policy
+	 */
+	public SelfVerificationPolicy getSelfVerificationPolicy() {
+		return this.selfVerificationPolicy;
+	}
+
+	/**
+	 * Sets the policy deciding if tokens forged by the proxy are verified again before they are sent.
+	 *
+	 * @param selfVerificationPolicy The self verification policy
+	 */
+	public void setSelfVerificationPolicy( SelfVerificationPolicy selfVerificationPolicy ) {
+		this.selfVerificationPolicy = selfVerificationPolicy;
+	}
+
+	/**
+	 * Gets the executor running login cryptography off the network workers.
+	 *
+	 * @return The login executor
+	 */
+	LoginExecutor getLoginExecutor() {
+		return this.loginExecutor;
+	}
+
+	/**
+	 * Gets the provider of the sockets used for backend connections.
+	 *
+	 * @return The backend socket provider
+	 */
+	BackendSocketProvider getBackendSockets() {
+		return this.backendSockets;
+	}
+
 	public void prepareIncomingConnection( Connection clientConnection ) {
-		ProxiedConnection proxiedConnection = new ProxiedConnection( this, clientConnection );
+		ProxiedConnection proxiedConnection = new ProxiedConnection( this, this.getWorker( clientConnection ), clientConnection );
 		this.proxiesByClientConnection.put( clientConnection, proxiedConnection );
+		proxiedConnection.getWorker().register( proxiedConnection );
 	}
-	
+
 	public void notifyClientDisconnected( Connection clientConnection ) {
 		this.logger.info( "Client disconnected " + clientConnection.getAddress() );
 		ProxiedConnection connection = this.proxiesByClientConnection.remove( clientConnection );
 		if ( connection != null ) {
+			connection.getWorker().unregister( connection );
 			connection.performCleanup();
 		}
 	}
-	
-	public void close() {
-		this.closed = true;
+
+	/**
+	 * Gets the network worker shard the given client connection is pinned to. All work for a connection happens on
+	 * this single worker so that packet ordering per connection is kept.
+	 *
+	 * @param clientConnection The client connection to get the shard for
+	 * @return The worker responsible for the connection
+	 */
+	private NetworkWorker getWorker( Connection clientConnection ) {
+		int hash = clientConnection.hashCode();
+		hash ^= ( hash >>> 16 );
+		return this.workers[( hash & 0x7FFFFFFF ) % this.workers.length];
 	}
-	
-	private void updateLoop() {
-		while ( !this.closed ) {
-			for ( ProxiedConnection connection : this.proxiesByClientConnection.values() ) {
-				connection.update();
-			}
-			
-			try {
-				Thread.sleep( 10L );
-			} catch ( InterruptedException ignored ) {
-				// ._.
-			}
+
+	public void close() {
+		for ( NetworkWorker worker : this.workers ) {
+			worker.close();
 		}
+
+		this.loginExecutor.close();
+		this.logger.info( "Closing " + this.backendSockets.getOpenSockets() + " backend socket(s)" );
+		this.backendSockets.closeAll();
+		this.logger.info( "Rejected " + this.loginExecutor.getRejectedCount() + " login(s) because the login executor was saturated" );
+		EncryptionHandler.logCacheMetrics();
+		EncryptionHandler.setKeyDumpSink( null );
 	}
-	
+
 }
@@ -1,7 +1,12 @@
 package io.gomint.proxy.network;
 
+import io.gomint.proxy.jwt.ChainValidationResult;
+import io.gomint.proxy.jwt.CryptoPrimitives;
 import io.gomint.proxy.jwt.JwtToken;
 import io.gomint.proxy.jwt.MojangChainValidator;
+import io.gomint.proxy.jwt.MojangLoginForger;
+import io.gomint.proxy.util.AsyncFileSink;
+import io.gomint.proxy.util.ExpiringCache;
 import lombok.Getter;
 import org.bouncycastle.crypto.BufferedBlockCipher;
 import org.bouncycastle.crypto.InvalidCipherTextException;
@@ -10,24 +15,20 @@ import org.bouncycastle.crypto.engines.RijndaelEngine;
 import org.bouncycastle.crypto.modes.CFBBlockCipher;
 import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithIV;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.crypto.KeyAgreement;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.interfaces.ECPublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -40,13 +41,20 @@ import java.util.concurrent.atomic.AtomicLong;
 public class EncryptionHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger( EncryptionHandler.class );
-    private static KeyFactory ECDH_KEY_FACTORY;
-    public static KeyPair PROXY_KEY_PAIR;
+    private static volatile ProxyKeyStore KEY_STORE;
+    private static volatile MojangLoginForger LOGIN_FORGER;
+
+    // Debugging aid only, null unless key dumping has been enabled
+    private static volatile AsyncFileSink KEY_DUMP_SINK;
+
+    // Reconnect storms (e.g. a backend restart) bring the same clients with the same chains and keys back at once
+    private static final ExpiringCache<String, ChainValidationResult> CHAIN_CACHE = new ExpiringCache<>( "Login chain cache", 4096, 10, TimeUnit.MINUTES );
+    private static final ExpiringCache<String, byte[]> SECRET_CACHE = new ExpiringCache<>( "ECDH secret cache", 4096, 10, TimeUnit.MINUTES );
 
     static {
-        // Initialize KeyFactory:
+        // Fail fast if BouncyCastle is missing:
         try {
-            ECDH_KEY_FACTORY = KeyFactory.getInstance( "ECDH", "BC" );
+            CryptoPrimitives.ecdhKeyFactory();
         } catch ( NoSuchAlgorithmException e ) {
             e.printStackTrace();
             System.err.println( "Could not find ECDH Key Factory - please ensure that you have installed the latest version of BouncyCastle" );
@@ -60,43 +68,53 @@ public class EncryptionHandler {
 
     private static ECPublicKey createPublicKey( String base64 ) {
         try {
-            return (ECPublicKey) ECDH_KEY_FACTORY.generatePublic( new X509EncodedKeySpec( Base64.getDecoder()
+            return (ECPublicKey) CryptoPrimitives.ecdhKeyFactory().generatePublic( new X509EncodedKeySpec( Base64.getDecoder()
                     .decode( base64 ) ) );
-        } catch ( InvalidKeySpecException e ) {
+        } catch ( InvalidKeySpecException | NoSuchAlgorithmException | NoSuchProviderException e ) {
             e.printStackTrace();
             return null;
         }
     }
 
     /**
-     * Generates a new ECDSA Key Pair using the SEC curve secp384r1 provided by BouncyCastle. This must be invoked
-     * before attempting to build a shared secret for the client or the backend server.
+     * Sets the store holding the proxy's ECDSA key pair. This must be invoked before attempting to build a shared
+     * secret for the client or the backend server.
+     *
+     * @param keyStore The loaded key store
      */
-    public static void generateEncryptionKeys() {
-        // Setup KeyPairGenerator:
-        KeyPairGenerator generator;
-        try {
-            generator = KeyPairGenerator.getInstance( "EC", "BC" );
-            generator.initialize( 384 );
-        } catch ( NoSuchAlgorithmException | NoSuchProviderException e ) {
-            System.err.println( "It seems you have not installed a recent version of BouncyCastle; please ensure that your version supports EC Key-Pair-Generation using the secp384r1 curve" );
-            System.exit( -1 );
-            return;
-        }
-
-        // Generate the keypair:
-        PROXY_KEY_PAIR = generator.generateKeyPair();
+    public static void setKeyStore( ProxyKeyStore keyStore ) {
+        KEY_STORE = keyStore;
+    }
 
-        try ( BufferedWriter writer = new BufferedWriter( new FileWriter( "server.public.key" ) ) ) {
-            writer.write( Base64.getEncoder().encodeToString( PROXY_KEY_PAIR.getPublic().getEncoded() ) );
-        } catch ( IOException e ) {
-            e.printStackTrace();
+    /**
+     * Enable or disable dumping the public keys of logged in clients. Keys are written in the background, logins
+     * never wait for the disk.
+     *
+     * @param sink which receives one line per login or null to disable dumping
+     */
+    public static void setKeyDumpSink( AsyncFileSink sink ) {
+        AsyncFileSink old = KEY_DUMP_SINK;
+        KEY_DUMP_SINK = sink;
+        if ( old != null && old != sink ) {
+            old.close();
         }
-        try ( BufferedWriter writer = new BufferedWriter( new FileWriter( "server.private.key" ) ) ) {
-            writer.write( Base64.getEncoder().encodeToString( PROXY_KEY_PAIR.getPrivate().getEncoded() ) );
-        } catch ( IOException e ) {
-            e.printStackTrace();
+    }
+
+    /**
+     * Get the forger which creates the logins of the proxy towards backend servers. It is bound to the proxy key pair
+     * of this handler and keeps its encoded header and forged chains for as long as that key pair is in use.
+     *
+     * @return forger for the proxy key pair of this handler
+     */
+    public MojangLoginForger getLoginForger() {
+        MojangLoginForger forger = LOGIN_FORGER;
+        KeyPair keyPair = this.proxyKeyPair;
+        if ( forger == null || forger.getKeyPair() != keyPair ) {
+            forger = new MojangLoginForger( keyPair );
+            LOGIN_FORGER = forger;
         }
+
+        return forger;
     }
 
     // Client Side:
@@ -119,8 +137,19 @@ public class EncryptionHandler {
     @Getter private byte[] serverIV;
 
     // Miscellaneous:
+    private final Executor verificationExecutor;
+    private final KeyPair proxyKeyPair;
 
-    public EncryptionHandler() {
+    /**
+     * Create a new encryption handler
+     *
+     * @param verificationExecutor on which the signatures of the client's chain are verified, may be null
+     */
+    public EncryptionHandler( Executor verificationExecutor ) {
+        this.verificationExecutor = verificationExecutor;
+
+        // Key rotation must not change keys in the middle of a login
+        this.proxyKeyPair = KEY_STORE.getKeyPair();
         this.xboxLiveLogin = false;
         this.xboxUID = null;
         this.clientUsername = null;
@@ -221,49 +250,57 @@ public class EncryptionHandler {
      * @param jwt The raw JSON string containing the JWT chain provided by the client
      */
     public void supplyClientJWTChain( String jwt ) {
-        JSONObject json;
-        try {
-            json = this.parseJwtString( jwt );
-        } catch ( ParseException e ) {
-            e.printStackTrace();
+        // Validation only depends on the chain, identical chains can reuse the result
+        String chainHash = Base64.getEncoder().encodeToString( this.hashSHA256( jwt.getBytes( StandardCharsets.UTF_8 ) ) );
+        ChainValidationResult result = CHAIN_CACHE.computeIfAbsent( chainHash, hash -> this.validateClientJWTChain( jwt ) );
+        LOGGER.debug( "{}", CHAIN_CACHE );
+        if ( result == null ) {
             return;
         }
 
-        Object jsonChainRaw = json.get( "chain" );
-        if ( jsonChainRaw == null || !( jsonChainRaw instanceof JSONArray ) ) {
-            return;
-        }
+        this.trustedKeys = result.getTrustedKeys();
+        this.xboxLiveLogin = result.isXboxLiveLogin();
+        this.clientUsername = result.getUsername();
+        this.clientUUID = result.getUuid();
+        this.xboxUID = result.getXboxId();
+        this.clientPublicKey = result.getClientPublicKey();
 
-        MojangChainValidator chainValidator = new MojangChainValidator();
-        JSONArray jsonChain = (JSONArray) jsonChainRaw;
-        for ( int i = 0; i < jsonChain.size(); ++i ) {
-            Object jsonTokenRaw = jsonChain.get( i );
-            if ( jsonTokenRaw instanceof String ) {
-                try {
-                    JwtToken token = JwtToken.parse( (String) jsonTokenRaw );
-                    chainValidator.addToken( token );
-                } catch ( IllegalArgumentException e ) {
-                    e.printStackTrace();
-                    continue;
-                }
-            }
+        AsyncFileSink keyDumpSink = KEY_DUMP_SINK;
+        if ( keyDumpSink != null ) {
+            keyDumpSink.offer( this.clientUUID + " " + this.clientUsername + " " + Base64.getEncoder().encodeToString( this.clientPublicKey.getEncoded() ) );
         }
 
-        this.trustedKeys = chainValidator.getTrustedKeys();
-        this.xboxLiveLogin = chainValidator.validate();
-        this.clientUsername = chainValidator.getUsername();
-        this.clientUUID = chainValidator.getUUID();
-        this.xboxUID = chainValidator.getXboxId();
-        this.clientPublicKey = chainValidator.getClientPublicKey();
+        LOGGER.info( "Client provided JWT Chain: [authenticated=" + this.xboxLiveLogin + ", username=" + this.clientUsername + ", uuid=" + this.clientUUID + ", xuid=" + this.xboxUID + "]" );
+        LOGGER.debug( "Client public key: " + Base64.getEncoder().encodeToString( this.clientPublicKey.getEncoded() ) );
+    }
 
-        try ( BufferedWriter writer = new BufferedWriter( new FileWriter( "client.public.key" ) ) ) {
-            writer.write( Base64.getEncoder().encodeToString( this.clientPublicKey.getEncoded() ) );
-        } catch ( IOException e ) {
+    /**
+     * Parses and validates a client-provided JWT chain.
+     *
+     * @param jwt The raw JSON string containing the JWT chain provided by the client
+     * @return The result of the validation or null if the chain could not be parsed
+     */
+    private ChainValidationResult validateClientJWTChain( String jwt ) {
+        List<String> jsonChain;
+        try {
+            jsonChain = JwtToken.parseChain( jwt );
+        } catch ( IllegalArgumentException e ) {
             e.printStackTrace();
+            return null;
         }
 
-        LOGGER.info( "Client provided JWT Chain: [authenticated=" + this.xboxLiveLogin + ", username=" + this.clientUsername + ", uuid=" + this.clientUUID + ", xuid=" + this.xboxUID + "]" );
-        LOGGER.debug( "Client public key: " + Base64.getEncoder().encodeToString( this.clientPublicKey.getEncoded() ) );
+        MojangChainValidator chainValidator = new MojangChainValidator();
+        chainValidator.setExecutor( this.verificationExecutor );
+        for ( String jsonToken : jsonChain ) {
+            try {
+                JwtToken token = JwtToken.parse( jsonToken );
+                chainValidator.addToken( token );
+            } catch ( IllegalArgumentException e ) {
+                e.printStackTrace();
+            }
+        }
+
+        return new ChainValidationResult( chainValidator, chainValidator.validate() );
     }
 
     /**
@@ -286,7 +323,7 @@ public class EncryptionHandler {
         System.out.println( "Size of salt: " + salt.length );
 
         // Generate shared secret from ECDH keys:
-        byte[] secret = this.generateECDHSecret( PROXY_KEY_PAIR.getPrivate(), this.serverPublicKey );
+        byte[] secret = this.generateECDHSecret( this.proxyKeyPair.getPrivate(), this.serverPublicKey );
         if ( secret == null ) {
             return false;
         }
@@ -305,12 +342,13 @@ public class EncryptionHandler {
      */
     public boolean beginClientsideEncryption() {
         // Generate a random salt:
-        SecureRandom random = new SecureRandom();
         this.clientSalt = new byte[16];
-        random.nextBytes( this.clientSalt );
+        CryptoPrimitives.secureRandom().nextBytes( this.clientSalt );
 
-        // Generate shared secret from ECDH keys:
-        byte[] secret = this.generateECDHSecret( PROXY_KEY_PAIR.getPrivate(), this.clientPublicKey );
+        // Generate shared secret from ECDH keys, reconnecting clients with the same key get the cached one:
+        KeyPair keyPair = this.proxyKeyPair;
+        String secretKey = Base64.getEncoder().encodeToString( this.hashSHA256( keyPair.getPublic().getEncoded(), this.clientPublicKey.getEncoded() ) );
+        byte[] secret = SECRET_CACHE.computeIfAbsent( secretKey, key -> this.generateECDHSecret( keyPair.getPrivate(), this.clientPublicKey ) );
         if ( secret == null ) {
             return false;
         }
@@ -330,9 +368,27 @@ public class EncryptionHandler {
         this.clientEncryptionEnabled = enabled;
     }
 
+    /**
+     * Logs hit rate and saved time of the login caches.
+     */
+    public static void logCacheMetrics() {
+        LOGGER.info( CHAIN_CACHE.toString() );
+        LOGGER.info( SECRET_CACHE.toString() );
+
+        MojangLoginForger forger = LOGIN_FORGER;
+        if ( forger != null ) {
+            LOGGER.info( forger.getChainCache().toString() );
+        }
+
+        AsyncFileSink keyDumpSink = KEY_DUMP_SINK;
+        if ( keyDumpSink != null ) {
+            LOGGER.info( "Dropped " + keyDumpSink.getDroppedCount() + " client key(s) because the key dump queue was full" );
+        }
+    }
+
     private byte[] generateECDHSecret( PrivateKey privateKey, PublicKey publicKey ) {
         try {
-            KeyAgreement ka = KeyAgreement.getInstance( "ECDH", "BC" );
+            KeyAgreement ka = CryptoPrimitives.ecdhKeyAgreement();
             ka.init( privateKey );
             ka.doPhase( publicKey, true );
             return ka.generateSecret();
@@ -361,31 +417,15 @@ public class EncryptionHandler {
         return result;
     }
 
-    /**
-     * Parses the specified JSON string and ensures it is a JSONObject.
-     *
-     * @param jwt The string to parse
-     * @return The parsed JSON object on success
-     * @throws ParseException Thrown if the given JSON string is invalid or does not start with a JSONObject
-     */
-    private JSONObject parseJwtString( String jwt ) throws ParseException {
-        Object jsonParsed = new JSONParser().parse( jwt );
-        if ( jsonParsed instanceof JSONObject ) {
-            return (JSONObject) jsonParsed;
-        } else {
-            throw new ParseException( ParseException.ERROR_UNEXPECTED_TOKEN );
-        }
-    }
-
     public Map<String, PublicKey> getTrustedKeys() {
         return this.trustedKeys;
     }
 
     public String getProxyPublic() {
-        return Base64.getEncoder().encodeToString( PROXY_KEY_PAIR.getPublic().getEncoded() );
+        return Base64.getEncoder().encodeToString( this.proxyKeyPair.getPublic().getEncoded() );
     }
 
     public Key getProxyPrivate() {
-        return PROXY_KEY_PAIR.getPrivate();
+        return this.proxyKeyPair.getPrivate();
     }
 }
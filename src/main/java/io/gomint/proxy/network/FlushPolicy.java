@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Decides when queued packets of a connection get flushed into a batch. A batch is flushed as soon as one of the
+ * following is true:
+ * <ul>
+ * <li>a packet with an immediate flush ID is queued</li>
+ * <li>the oldest queued packet waited for {@link #getMaxLingerMicros()}</li>
+ * <li>at least {@link #getMaxPackets()} packets or {@link #getMaxBatchBytes()} bytes are queued</li>
+ * </ul>
+ * Batches are also cut at {@link #getMaxPackets()} packets and {@link #getMaxBatchBytes()} uncompressed bytes, so a
+ * stall does not produce one huge batch.
+ * <p>
+ * Policies may be changed at runtime, workers pick up the new values with the next flush.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+@Getter
+@Setter
+@ToString
+public class FlushPolicy {
+
+    private volatile int maxBatchBytes = 512 * 1024;
+    private volatile int maxPackets = 1024;
+    private volatile long maxLingerMicros = 1000;
+
+    @Getter( AccessLevel.NONE )
+    @Setter( AccessLevel.NONE )
+    @ToString.Exclude
+    private volatile boolean[] immediateIds = new boolean[1024];
+
+    public FlushPolicy() {
+        // Login and encryption setup must not be delayed, movement is latency critical
+        this.setImmediate( PacketRegistry.PACKET_CLIENT_HANDSHAKE, true );
+        this.setImmediate( PacketRegistry.PACKET_SERVER_HANDSHAKE, true );
+        this.setImmediate( PacketRegistry.PACKET_ENCRYPTION_READY, true );
+        this.setImmediate( PacketRegistry.PACKET_MOVE_PLAYER, true );
+    }
+
+    /**
+     * Set if the given packet should cause a immediate flush of its queue. The IDs are copied on write and published
+     * through a volatile field, so queues on other threads see the change with their next packet.
+     *
+     * @param packetId  of the packet
+     * @param immediate true when the packet should not wait for the linger time
+     */
+    public synchronized void setImmediate( int packetId, boolean immediate ) {
+        boolean[] immediateIds = this.immediateIds.clone();
+        immediateIds[packetId & 0x3FF] = immediate;
+        this.immediateIds = immediateIds;
+    }
+
+    /**
+     * Check if the given packet causes a immediate flush
+     *
+     * @param packetId of the packet
+     * @return true when the queue should be flushed without waiting
+     */
+    public boolean isImmediate( int packetId ) {
+        return this.immediateIds[packetId & 0x3FF];
+    }
+
+}
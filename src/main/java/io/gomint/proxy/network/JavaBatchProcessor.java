@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+import io.gomint.proxy.network.compression.CompressionEngine;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.zip.DataFormatException;
+
+/**
+ * Processor using a pluggable {@link CompressionEngine} and the JCE for encryption. Encrypted batches carry the
+ * first 8 bytes of SHA-256( counter, payload, key ) behind the payload, the whole thing is encrypted using
+ * AES-256-CFB8 as a stream over all batches of the connection.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+class JavaBatchProcessor implements BatchProcessor {
+
+    private static final int CHECKSUM_LENGTH = 8;
+
+    private final CompressionEngine engine;
+    private final boolean encode;
+
+    private Cipher cipher;
+    private MessageDigest digest;
+    private byte[] key;
+    private long counter;
+
+    JavaBatchProcessor( CompressionEngine engine, boolean encode ) {
+        this.engine = engine;
+        this.encode = encode;
+    }
+
+    @Override
+    public void enableCrypto( byte[] key, byte[] iv ) {
+        try {
+            this.cipher = Cipher.getInstance( "AES/CFB8/NoPadding" );
+            this.cipher.init( this.encode ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, new SecretKeySpec( key, "AES" ), new IvParameterSpec( iv ) );
+            this.digest = MessageDigest.getInstance( "SHA-256" );
+        } catch ( GeneralSecurityException e ) {
+            throw new IllegalStateException( "Could not enable batch encryption", e );
+        }
+
+        this.key = key;
+        this.counter = 0;
+    }
+
+    @Override
+    public ByteBuf process( ByteBuf in ) {
+        return this.encode ? this.encode( in ) : this.decode( in );
+    }
+
+    private ByteBuf encode( ByteBuf in ) {
+        ByteBuf compressed = this.engine.compress( in );
+        if ( this.cipher == null ) {
+            return compressed;
+        }
+
+        try {
+            compressed.writeBytes( this.checksum( compressed, compressed.readerIndex(), compressed.readableBytes() ) );
+            this.crypt( compressed );
+            return compressed;
+        } catch ( RuntimeException e ) {
+            compressed.release();
+            throw e;
+        }
+    }
+
+    private ByteBuf decode( ByteBuf in ) {
+        ByteBuf payload = in;
+        if ( this.cipher != null ) {
+            // The input belongs to jraknet, decrypt into a copy
+            payload = PooledByteBufAllocator.DEFAULT.directBuffer( in.readableBytes() );
+            payload.writeBytes( in, in.readerIndex(), in.readableBytes() );
+        }
+
+        try {
+            if ( this.cipher != null ) {
+                this.crypt( payload );
+
+                int length = payload.readableBytes() - CHECKSUM_LENGTH;
+                if ( length < 0 ) {
+                    throw new IllegalStateException( "Encrypted batch is too short" );
+                }
+
+                byte[] expected = this.checksum( payload, payload.readerIndex(), length );
+                for ( int i = 0; i < CHECKSUM_LENGTH; i++ ) {
+                    if ( payload.getByte( payload.readerIndex() + length + i ) != expected[i] ) {
+                        throw new IllegalStateException( "Invalid batch checksum" );
+                    }
+                }
+
+                payload.writerIndex( payload.readerIndex() + length );
+            }
+
+            return this.engine.decompress( payload );
+        } catch ( DataFormatException e ) {
+            throw new IllegalStateException( "Could not decompress batch", e );
+        } finally {
+            if ( payload != in ) {
+                payload.release();
+            }
+        }
+    }
+
+    private byte[] checksum( ByteBuf data, int offset, int length ) {
+        ByteBuffer counterBytes = ByteBuffer.allocate( 8 ).order( ByteOrder.LITTLE_ENDIAN );
+        counterBytes.putLong( this.counter++ ).flip();
+
+        this.digest.update( counterBytes );
+        this.digest.update( data.nioBuffer( offset, length ) );
+        this.digest.update( this.key );
+
+        byte[] hash = this.digest.digest();
+        byte[] checksum = new byte[CHECKSUM_LENGTH];
+        System.arraycopy( hash, 0, checksum, 0, CHECKSUM_LENGTH );
+        return checksum;
+    }
+
+    private void crypt( ByteBuf data ) {
+        ByteBuffer nio = data.nioBuffer( data.readerIndex(), data.readableBytes() );
+        try {
+            // CFB8 has no padding, in place is safe
+            this.cipher.update( nio, nio.duplicate() );
+        } catch ( GeneralSecurityException e ) {
+            throw new IllegalStateException( "Could not crypt batch", e );
+        }
+    }
+
+    @Override
+    public void close() {
+        this.engine.close();
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded thread pool running the expensive parts of logins (chain validation, ECDH, JWT forging) so network workers
+ * keep serving the players already connected. When the queue is full new logins are rejected instead of piling up.
+ * <p>
+ * Logins may hand parts of their work (like the signature checks of a chain) to a separate set of threads through
+ * {@link #execute(Runnable)}. That work never waits in a queue: it is only accepted when a thread is idle, otherwise it
+ * is rejected and the caller has to run it itself. So it can neither take queue slots from new logins nor stay queued
+ * after the login it belongs to has finished.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+class LoginExecutor implements Executor {
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor helperExecutor;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Create and start a new executor
+     *
+     * @param threads       amount of crypto threads
+     * @param queueCapacity amount of logins which may wait for a thread
+     */
+    LoginExecutor( int threads, int queueCapacity ) {
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>( queueCapacity ), runnable -> {
+            Thread thread = new Thread( runnable, "Login Crypto #" + threadId.getAndIncrement() );
+            thread.setDaemon( true );
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy() );
+
+        AtomicInteger helperId = new AtomicInteger();
+        this.helperExecutor = new ThreadPoolExecutor( 0, threads, 30, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), runnable -> {
+            Thread thread = new Thread( runnable, "Login Crypto Helper #" + helperId.getAndIncrement() );
+            thread.setDaemon( true );
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy() );
+    }
+
+    /**
+     * Submit a login task
+     *
+     * @param task which should be run on a crypto thread
+     * @return true when the task has been queued, false when the executor is saturated
+     */
+    boolean submit( Runnable task ) {
+        try {
+            this.executor.execute( task );
+            return true;
+        } catch ( RejectedExecutionException e ) {
+            this.rejected.increment();
+            return false;
+        }
+    }
+
+    /**
+     * Run a part of a login which is already in progress on an idle helper thread. Rejections are not counted as
+     * rejected logins.
+     *
+     * @param task which should be run on a helper thread
+     * @throws RejectedExecutionException when no helper thread is idle
+     */
+    @Override
+    public void execute( Runnable task ) {
+        this.helperExecutor.execute( task );
+    }
+
+    int getQueueDepth() {
+        return this.executor.getQueue().size();
+    }
+
+    long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    void close() {
+        this.executor.shutdown();
+        this.helperExecutor.shutdown();
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+import io.gomint.crypto.Processor;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Processor backed by the native gomint crypto library which compresses and encrypts in one pass
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+class NativeBatchProcessor implements BatchProcessor {
+
+    private final Processor processor;
+
+    NativeBatchProcessor( boolean encode ) {
+        this.processor = new Processor( encode );
+    }
+
+    @Override
+    public void enableCrypto( byte[] key, byte[] iv ) {
+        this.processor.enableCrypto( key, iv );
+    }
+
+    @Override
+    public ByteBuf process( ByteBuf in ) {
+        return this.processor.process( in );
+    }
+
+    @Override
+    public void close() {
+        // Native state is freed by the library itself
+    }
+
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+import io.gomint.proxy.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Thread which services {@link ProxiedConnection}s. Connections get serviced as soon as they are marked ready through
+ * {@link #schedule(ProxiedConnection)} instead of waiting for a fixed sleep interval to elapse.
+ * <p>
+ * jraknet does not notify us when a connection received data, so inbound traffic is still picked up by polling.
+ * Connections which received something in the last round are polled again after {@link #ACTIVE_SWEEP_INTERVAL}, all
+ * other connections are only picked up by a full sweep once per {@link #INBOUND_SWEEP_INTERVAL}. The worker parks in
+ * between instead of sleeping, so any wakeup cuts the wait short.
+ * <p>
+ * The first packet a connection receives after being idle therefore waits up to {@link #INBOUND_SWEEP_INTERVAL}
+ * (half of it on average) before it is handled, packets of active connections up to {@link #ACTIVE_SWEEP_INTERVAL}.
+ * The inbound poll gap metric records the time between a poll which returned data and the previous poll of the same
+ * connection, which is an upper bound for how long received data waited.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+class NetworkWorker implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( NetworkWorker.class );
+
+    private static final long ACTIVE_SWEEP_INTERVAL = TimeUnit.MILLISECONDS.toNanos( 1 );
+    private static final long INBOUND_SWEEP_INTERVAL = TimeUnit.MILLISECONDS.toNanos( 5 );
+    private static final long METRICS_INTERVAL = TimeUnit.MINUTES.toNanos( 1 );
+
+    private final Thread thread;
+    private final Queue<ProxiedConnection> readyConnections = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<ProxiedConnection> connections = ConcurrentHashMap.newKeySet();
+    private final LatencyHistogram wakeupLatency;
+    private final LatencyHistogram inboundPollGap;
+    private final LatencyHistogram flushWait;
+    private final LatencyHistogram batchBytes;
+    private final LatencyHistogram batchPackets;
+
+    // Connections waiting for their flush linger time to run out, only touched by the worker thread
+    private ArrayDeque<ProxiedConnection> deferredConnections = new ArrayDeque<>();
+    private ArrayDeque<ProxiedConnection> runningDeferredConnections = new ArrayDeque<>();
+    private boolean hasDeferredDeadline;
+
+    // Connections which received data in the last round, only touched by the worker thread
+    private Set<ProxiedConnection> activeConnections = new HashSet<>();
+    private Set<ProxiedConnection> runningActiveConnections = new HashSet<>();
+    private long deferredDeadline;
+
+    private volatile boolean closed;
+
+    /**
+     * Create a new worker. The worker thread is not started until {@link #start()} is called.
+     *
+     * @param name of the worker thread
+     */
+    NetworkWorker( String name ) {
+        this.thread = new Thread( this );
+        this.thread.setName( name );
+        this.wakeupLatency = new LatencyHistogram( name + " wakeup latency", "us" );
+        this.inboundPollGap = new LatencyHistogram( name + " inbound poll gap", "us" );
+        this.flushWait = new LatencyHistogram( name + " flush wait", "us" );
+        this.batchBytes = new LatencyHistogram( name + " batch size", "b" );
+        this.batchPackets = new LatencyHistogram( name + " packets per batch", "" );
+    }
+
+    void start() {
+        this.thread.start();
+    }
+
+    void close() {
+        this.closed = true;
+        LockSupport.unpark( this.thread );
+    }
+
+    void register( ProxiedConnection connection ) {
+        this.connections.add( connection );
+    }
+
+    void unregister( ProxiedConnection connection ) {
+        this.connections.remove( connection );
+    }
+
+    /**
+     * Mark the given connection as ready. It will be serviced by the worker as soon as possible.
+     *
+     * @param connection which has work to do
+     */
+    void schedule( ProxiedConnection connection ) {
+        if ( connection.markScheduled() ) {
+            this.readyConnections.offer( connection );
+            LockSupport.unpark( this.thread );
+        }
+    }
+
+    /**
+     * Run the given task on this worker as soon as possible. Used to hand results of work done on other threads back
+     * to the connections of this worker.
+     *
+     * @param task which should be run by the worker thread
+     */
+    void execute( Runnable task ) {
+        this.tasks.offer( task );
+        LockSupport.unpark( this.thread );
+    }
+
+    /**
+     * Update the given connection again once the given deadline has been reached. Must only be called by the worker
+     * thread.
+     *
+     * @param connection which should be updated again
+     * @param deadline   {@link System#nanoTime()} at which the connection should be updated
+     */
+    void defer( ProxiedConnection connection, long deadline ) {
+        if ( connection.markDeferred() ) {
+            this.deferredConnections.add( connection );
+        }
+
+        if ( !this.hasDeferredDeadline || deadline - this.deferredDeadline < 0 ) {
+            this.hasDeferredDeadline = true;
+            this.deferredDeadline = deadline;
+        }
+    }
+
+    /**
+     * Record metrics of a flushed batch
+     *
+     * @param waitNanos  how long the oldest packet of the batch waited
+     * @param bytes      uncompressed size of the batch
+     * @param packets    amount of packets in the batch
+     */
+    void recordBatch( long waitNanos, int bytes, int packets ) {
+        this.flushWait.recordNanos( waitNanos );
+        this.batchBytes.record( bytes );
+        this.batchPackets.record( packets );
+    }
+
+    /**
+     * Check if the calling thread is this worker's thread
+     *
+     * @return true when called from within this worker
+     */
+    boolean isWorkerThread() {
+        return Thread.currentThread() == this.thread;
+    }
+
+    /**
+     * Get the histogram of delays between a connection being marked ready and it being serviced
+     *
+     * @return wakeup latency histogram
+     */
+    LatencyHistogram getWakeupLatency() {
+        return this.wakeupLatency;
+    }
+
+    /**
+     * Get the histogram of gaps between a poll which returned inbound data and the previous poll of the connection
+     *
+     * @return inbound poll gap histogram
+     */
+    LatencyHistogram getInboundPollGap() {
+        return this.inboundPollGap;
+    }
+
+    @Override
+    public void run() {
+        long nextSweep = System.nanoTime();
+        long nextActiveSweep = nextSweep;
+        long nextMetrics = nextSweep + METRICS_INTERVAL;
+
+        while ( !this.closed ) {
+            this.runTasks();
+
+            ProxiedConnection connection;
+            while ( ( connection = this.readyConnections.poll() ) != null ) {
+                this.wakeupLatency.recordNanos( System.nanoTime() - connection.clearScheduled() );
+                this.update( connection );
+            }
+
+            long now = System.nanoTime();
+            if ( now - nextSweep >= 0 ) {
+                // The full sweep finds out again which connections are active
+                this.activeConnections.clear();
+                for ( ProxiedConnection proxiedConnection : this.connections ) {
+                    this.update( proxiedConnection );
+                }
+
+                nextSweep = now + INBOUND_SWEEP_INTERVAL;
+                nextActiveSweep = now + ACTIVE_SWEEP_INTERVAL;
+            } else if ( now - nextActiveSweep >= 0 ) {
+                this.sweepActive();
+                nextActiveSweep = now + ACTIVE_SWEEP_INTERVAL;
+            }
+
+            if ( this.hasDeferredDeadline && now - this.deferredDeadline >= 0 ) {
+                this.runDeferred();
+            }
+
+            if ( now - nextMetrics >= 0 ) {
+                this.logMetrics( false );
+                nextMetrics = now + METRICS_INTERVAL;
+            }
+
+            if ( this.readyConnections.isEmpty() && this.tasks.isEmpty() ) {
+                long wakeup = nextSweep;
+                if ( !this.activeConnections.isEmpty() && nextActiveSweep - wakeup < 0 ) {
+                    wakeup = nextActiveSweep;
+                }
+
+                if ( this.hasDeferredDeadline && this.deferredDeadline - wakeup < 0 ) {
+                    wakeup = this.deferredDeadline;
+                }
+
+                LockSupport.parkNanos( this, wakeup - System.nanoTime() );
+            }
+        }
+
+        this.logMetrics( true );
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ( ( task = this.tasks.poll() ) != null ) {
+            // CHECKSTYLE:OFF
+            try {
+                task.run();
+            } catch ( Exception e ) {
+                LOGGER.error( "Error whilst running worker task", e );
+            }
+            // CHECKSTYLE:ON
+        }
+    }
+
+    private void sweepActive() {
+        // Swap so only connections which receive again stay active
+        Set<ProxiedConnection> running = this.activeConnections;
+        this.activeConnections = this.runningActiveConnections;
+        this.runningActiveConnections = running;
+
+        for ( ProxiedConnection connection : running ) {
+            this.update( connection );
+        }
+
+        running.clear();
+    }
+
+    private void runDeferred() {
+        // Swap so connections which defer again end up in the next round
+        ArrayDeque<ProxiedConnection> running = this.deferredConnections;
+        this.deferredConnections = this.runningDeferredConnections;
+        this.runningDeferredConnections = running;
+        this.hasDeferredDeadline = false;
+
+        ProxiedConnection connection;
+        while ( ( connection = running.poll() ) != null ) {
+            connection.clearDeferred();
+            this.update( connection );
+        }
+    }
+
+    private void logMetrics( boolean closing ) {
+        if ( closing ) {
+            LOGGER.info( this.wakeupLatency.toString() );
+            LOGGER.info( this.inboundPollGap.toString() );
+            LOGGER.info( this.flushWait.toString() );
+            LOGGER.info( this.batchBytes.toString() );
+            LOGGER.info( this.batchPackets.toString() );
+        } else if ( LOGGER.isDebugEnabled() ) {
+            LOGGER.debug( this.wakeupLatency.toString() );
+            LOGGER.debug( this.inboundPollGap.toString() );
+            LOGGER.debug( this.flushWait.toString() );
+            LOGGER.debug( this.batchBytes.toString() );
+            LOGGER.debug( this.batchPackets.toString() );
+        }
+    }
+
+    private void update( ProxiedConnection connection ) {
+        long now = System.nanoTime();
+        long lastPolled = connection.swapLastPolled( now );
+
+        // CHECKSTYLE:OFF
+        try {
+            if ( connection.update() ) {
+                // The data arrived at some point since the previous poll
+                if ( lastPolled != 0 ) {
+                    this.inboundPollGap.recordNanos( now - lastPolled );
+                }
+
+                this.activeConnections.add( connection );
+            }
+        } catch ( Exception e ) {
+            LOGGER.error( "Error whilst updating connection", e );
+        }
+        // CHECKSTYLE:ON
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+import io.gomint.proxy.network.packet.Packet;
+import io.gomint.proxy.util.MpscRingQueue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Packets waiting to be sent into one direction of a connection together with the state the {@link FlushPolicy}
+ * needs: estimated size of the queued packets, how long the oldest one waits and if a immediate packet is queued.
+ * <p>
+ * Packets may be offered from any thread, everything else must only be called by the network worker.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+class OutboundQueue {
+
+    private final MpscRingQueue<Packet> packets;
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong oldestEnqueuedAt = new AtomicLong();
+    private volatile boolean immediate;
+
+    OutboundQueue( int capacity ) {
+        this.packets = new MpscRingQueue<>( capacity );
+    }
+
+    /**
+     * Enqueue a packet. May be called from any thread.
+     *
+     * @param packet which should be sent
+     * @param policy which decides if the packet needs a immediate flush
+     * @return true when the packet has been queued, false when the queue is full
+     */
+    boolean offer( Packet packet, FlushPolicy policy ) {
+        // Once published the worker may write and release the packet at any time, so read it before
+        int estimate = packet.estimateLength();
+        boolean immediate = policy.isImmediate( packet.getId() );
+        if ( estimate > 0 ) {
+            this.pendingBytes.addAndGet( estimate );
+        }
+
+        if ( !this.packets.offer( packet ) ) {
+            if ( estimate > 0 ) {
+                this.pendingBytes.addAndGet( -estimate );
+            }
+
+            return false;
+        }
+
+        this.oldestEnqueuedAt.compareAndSet( 0, nanoTime() );
+        if ( immediate ) {
+            this.immediate = true;
+        }
+
+        return true;
+    }
+
+    /**
+     * Dequeue the next packet
+     *
+     * @return next packet or null when the queue is empty
+     */
+    Packet poll() {
+        Packet packet = this.packets.poll();
+        if ( packet != null ) {
+            int estimate = packet.estimateLength();
+            if ( estimate > 0 ) {
+                this.pendingBytes.addAndGet( -estimate );
+            }
+        }
+
+        return packet;
+    }
+
+    /**
+     * Check if the queue should be flushed now
+     *
+     * @param policy which should be applied
+     * @param now    current {@link System#nanoTime()}
+     * @return true when the queued packets should be flushed
+     */
+    boolean shouldFlush( FlushPolicy policy, long now ) {
+        if ( this.packets.isEmpty() ) {
+            return false;
+        }
+
+        return this.immediate ||
+            this.packets.size() >= policy.getMaxPackets() ||
+            this.pendingBytes.get() >= policy.getMaxBatchBytes() ||
+            now - this.getOldestEnqueuedAt( now ) >= TimeUnit.MICROSECONDS.toNanos( policy.getMaxLingerMicros() );
+    }
+
+    /**
+     * Get the point in time at which the linger time of the oldest queued packet runs out
+     *
+     * @param policy which should be applied
+     * @param now    current {@link System#nanoTime()}
+     * @return {@link System#nanoTime()} at which the queue has to be flushed at the latest
+     */
+    long getFlushDeadline( FlushPolicy policy, long now ) {
+        return this.getOldestEnqueuedAt( now ) + TimeUnit.MICROSECONDS.toNanos( policy.getMaxLingerMicros() );
+    }
+
+    /**
+     * Start a flush. Resets the flush triggers, packets enqueued while the flush runs set them again.
+     *
+     * @param now current {@link System#nanoTime()}
+     * @return how long the oldest packet waited for this flush in nanoseconds
+     */
+    long beginFlush( long now ) {
+        this.immediate = false;
+        long oldest = this.oldestEnqueuedAt.getAndSet( 0 );
+        return oldest == 0 ? 0 : now - oldest;
+    }
+
+    boolean isEmpty() {
+        return this.packets.isEmpty();
+    }
+
+    int size() {
+        return this.packets.size();
+    }
+
+    long getOverflowCount() {
+        return this.packets.getOverflowCount();
+    }
+
+    private long getOldestEnqueuedAt( long now ) {
+        // Packets offered while a flush began may not have set the timestamp
+        if ( this.oldestEnqueuedAt.compareAndSet( 0, now ) ) {
+            return now;
+        }
+
+        return this.oldestEnqueuedAt.get();
+    }
+
+    private static long nanoTime() {
+        // 0 marks a empty queue
+        long now = System.nanoTime();
+        return now == 0 ? 1 : now;
+    }
+
+}
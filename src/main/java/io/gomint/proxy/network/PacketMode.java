@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+/**
+ * What the proxy does with a packet of a given ID found inside a batch
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+public enum PacketMode {
+
+    /**
+     * Decode the packet into its {@link io.gomint.proxy.network.packet.Packet} class so handlers can inspect it
+     */
+    DECODE,
+
+    /**
+     * Forward the raw bytes without decoding them
+     */
+    PASSTHROUGH,
+
+    /**
+     * Do not forward the packet at all
+     */
+    DROP
+
+}
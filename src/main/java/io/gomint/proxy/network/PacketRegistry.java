@@ -2,6 +2,9 @@ package io.gomint.proxy.network;
 
 import io.gomint.proxy.network.packet.*;
 
+import java.util.Arrays;
+import java.util.function.Supplier;
+
 /**
  * @author BlackyPaw
  * @version 1.0
@@ -12,6 +15,7 @@ public class PacketRegistry {
     public static final int PACKET_SERVER_HANDSHAKE = 0x03;
     public static final int PACKET_ENCRYPTION_READY = 0x04;
     public static final int PACKET_START_GAME = 0x0b;
+    public static final int PACKET_MOVE_PLAYER = 0x13;
     public static final int PACKET_SPAWN_ENTITY =  0x0d;
     public static final int PACKET_UPDATE_ATTRIBUTES = 0x1D;
     public static final int PACKET_WORLD_EVENT = 0x19;
@@ -26,34 +30,87 @@ public class PacketRegistry {
     public static final int PACKET_BIOME_DEFINITION_LIST = 0x7a;
     public static final int PACKET_CREATIVE_CONTENT = 0x91;
 
+    private static final int MAX_PACKET_ID = 1024;
+
+    @SuppressWarnings( "unchecked" )
+    private static final Supplier<? extends Packet>[] FACTORIES = new Supplier[MAX_PACKET_ID];
+    private static final PacketMode[] MODES = new PacketMode[MAX_PACKET_ID];
+
+    static {
+        Arrays.fill( MODES, PacketMode.PASSTHROUGH );
+
+        // Packets the proxy needs to look into
+        register( PACKET_CLIENT_HANDSHAKE, PacketLogin::new, PacketMode.DECODE );
+        register( PACKET_START_GAME, PacketStartGame::new, PacketMode.DECODE );
+        register( PACKET_ENCRYPTION_READY, PacketEncryptionReady::new, PacketMode.DECODE );
+        register( PACKET_SERVER_HANDSHAKE, PacketServerHandshake::new, PacketMode.DECODE );
+        register( PACKET_CRAFTING_RECIPES, PacketCraftingRecipes::new, PacketMode.DECODE );
+        register( PACKET_INVENTORY_CONTENT_PACKET, PacketInventoryContent::new, PacketMode.DECODE );
+        register( PACKET_CREATIVE_CONTENT, PacketCreativeContent::new, PacketMode.DECODE );
+        register( PACKET_BIOME_DEFINITION_LIST, PacketBiomeDefinitionList::new, PacketMode.DECODE );
+
+        // Known but not worth parsing unless somebody needs them
+        register( PACKET_SPAWN_ENTITY, PacketSpawnEntity::new, PacketMode.PASSTHROUGH );
+        register( PACKET_ENTITY_METADATA, PacketEntityMetadata::new, PacketMode.PASSTHROUGH );
+        register( PACKET_UPDATE_ATTRIBUTES, PacketUpdateAttributes::new, PacketMode.PASSTHROUGH );
+        register( PACKET_AVAILABLE_COMMANDS, PacketAvailableCommands::new, PacketMode.PASSTHROUGH );
+        register( PACKET_ADVENTURE_SETTINGS, PacketAdventureSettings::new, PacketMode.PASSTHROUGH );
+    }
+
+    /**
+     * Registers a packet class for the given packet ID. Registration may happen at runtime, network workers pick it
+     * up with the next packet of that ID.
+     *
+     * @param packetID The ID of the packet
+     * @param factory  The factory creating new instances of the packet class
+     * @param mode     What to do with packets of this ID
+     */
+    public static void register( int packetID, Supplier<? extends Packet> factory, PacketMode mode ) {
+        FACTORIES[packetID & 0x3FF] = factory;
+        setMode( packetID, mode );
+    }
+
+    /**
+     * Sets what to do with packets of the given ID.
+     *
+     * @param packetID The ID of the packet
+     * @param mode     What to do with packets of this ID
+     * @throws IllegalStateException if packets should be decoded but no packet class is registered for the ID
+     */
+    public static void setMode( int packetID, PacketMode mode ) {
+        if ( mode == PacketMode.DECODE && FACTORIES[packetID & 0x3FF] == null ) {
+            throw new IllegalStateException( "No packet class registered for ID " + packetID );
+        }
+
+        MODES[packetID & 0x3FF] = mode;
+    }
+
     /**
-     * Creates an instance of the Packet class corresponding to the given packet ID.
+     * Gets what to do with packets of the given ID.
+     *
+     * @param packetID The ID of the packet
+     * @return The mode of the packet ID, {@link PacketMode#PASSTHROUGH} if nothing has been configured
+     */
+    public static PacketMode getMode( int packetID ) {
+        return MODES[packetID & 0x3FF];
+    }
+
+    /**
+     * Creates an instance of the Packet class corresponding to the given packet ID if packets with this ID should be
+     * decoded.
      *
      * @param packetID The ID of the packet
      * @return A newly created instance of the Packet subclass resembling packets with the specified ID or null if no
-     * matching class was found
+     * matching class was found or the packet should not be decoded
      */
     public static Packet createFromID( int packetID ) {
-        switch ( packetID ) {
-            case PACKET_CLIENT_HANDSHAKE:
-                return new PacketLogin();
-            case PACKET_START_GAME:
-                return new PacketStartGame();
-            case PACKET_ENCRYPTION_READY:
-                return new PacketEncryptionReady();
-            case PACKET_SERVER_HANDSHAKE:
-                return new PacketServerHandshake();
-            case PACKET_CRAFTING_RECIPES:
-                return new PacketCraftingRecipes();
-            case PACKET_INVENTORY_CONTENT_PACKET:
-                return new PacketInventoryContent();
-            case PACKET_CREATIVE_CONTENT:
-                return new PacketCreativeContent();
-            case PACKET_BIOME_DEFINITION_LIST:
-                return new PacketBiomeDefinitionList();
-            default:
-                return null;
+        int index = packetID & 0x3FF;
+        if ( MODES[index] != PacketMode.DECODE ) {
+            return null;
         }
+
+        Supplier<? extends Packet> factory = FACTORIES[index];
+        return factory != null ? factory.get() : null;
     }
 
 }
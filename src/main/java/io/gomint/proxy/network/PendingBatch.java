@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+import io.gomint.jraknet.PacketBuffer;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Batch under construction for one connection direction. All batches are sent reliable ordered on channel 0: once
+ * encryption is enabled every batch is part of one cipher stream, so the other side has to get them in the order they
+ * were encrypted.
+ * <p>
+ * Not thread safe, only used by the network worker of the connection.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+class PendingBatch {
+
+    private final BatchScratchBuffer scratch = new BatchScratchBuffer();
+
+    private ByteBuf buffer;
+    private PacketBuffer packetBuffer;
+    private int packetCount;
+
+    /**
+     * Get the uncompressed content of the current batch, starts a new batch if needed
+     *
+     * @return buffer to write packets into
+     */
+    ByteBuf getBuffer() {
+        if ( this.buffer == null ) {
+            this.buffer = this.scratch.acquire();
+            this.packetBuffer = new PacketBuffer( this.buffer );
+        }
+
+        return this.buffer;
+    }
+
+    /**
+     * Get a packet buffer view of {@link #getBuffer()} for packet serialization
+     *
+     * @return packet buffer writing into the current batch
+     */
+    PacketBuffer getPacketBuffer() {
+        this.getBuffer();
+        return this.packetBuffer;
+    }
+
+    void addPacket() {
+        this.packetCount++;
+    }
+
+    int getPacketCount() {
+        return this.packetCount;
+    }
+
+    boolean isEmpty() {
+        return this.packetCount == 0;
+    }
+
+    /**
+     * Check if the current batch reached one of the limits of the flush policy
+     *
+     * @param policy which limits the batch size
+     * @return true when the batch should be sent
+     */
+    boolean isFull( FlushPolicy policy ) {
+        return this.packetCount >= Math.max( 1, policy.getMaxPackets() ) ||
+            ( this.buffer != null && this.buffer.writerIndex() >= policy.getMaxBatchBytes() );
+    }
+
+    /**
+     * End the current batch after it has been encoded
+     */
+    void reset() {
+        if ( this.buffer != null ) {
+            int used = this.buffer.writerIndex();
+            this.buffer = null;
+            this.packetBuffer = null;
+            this.scratch.recordUsage( used );
+        }
+
+        this.packetCount = 0;
+    }
+
+    /**
+     * Release the scratch buffer of this batch
+     */
+    void release() {
+        this.buffer = null;
+        this.packetBuffer = null;
+        this.packetCount = 0;
+        this.scratch.release();
+    }
+
+}
@@ -1,29 +1,29 @@
 package io.gomint.proxy.network;
 
-import io.gomint.crypto.Processor;
 import io.gomint.jraknet.*;
-import io.gomint.proxy.Util;
+import io.gomint.proxy.asset.AssetAssembler;
 import io.gomint.proxy.jwt.*;
+import io.gomint.proxy.network.backend.Backend;
+import io.gomint.proxy.network.packet.LazyPacket;
 import io.gomint.proxy.network.packet.Packet;
 import io.gomint.proxy.network.packet.PacketEncryptionReady;
 import io.gomint.proxy.network.packet.PacketLogin;
+import io.gomint.proxy.network.packet.PacketPassthrough;
 import io.gomint.proxy.network.packet.PacketServerHandshake;
+import io.gomint.proxy.network.packet.PacketStartGame;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.PooledByteBufAllocator;
-import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.security.Key;
+import java.security.PublicKey;
 import java.util.*;
-import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author BlackyPaw
@@ -32,106 +32,343 @@ import java.util.zip.Inflater;
 public class ProxiedConnection {
 
     private static final Logger LOGGER = LoggerFactory.getLogger( ProxiedConnection.class );
+    private static final int PACKET_QUEUE_CAPACITY = 8192;
 
     // Client:
     private final Connection clientConnection;
-    private Queue<Packet> clientPacketQueue;
+    private final OutboundQueue clientPacketQueue;
 
     // Server:
-    private ClientSocket proxySocket;
-    private Connection proxiedConnection;
-    private Queue<Packet> serverPacketQueue;
+    private volatile ClientSocket proxySocket;
+    private final AtomicReference<Backend> backend = new AtomicReference<>();
+    private volatile Connection proxiedConnection;
+    private final OutboundQueue serverPacketQueue;
 
     // Miscellaneous:
     private final ConnectionManager connectionManager;
-    private JSONObject skinData;
+    private final NetworkWorker worker;
+    private byte[] skinClaims;
     private EncryptionHandler encryptionHandler;
 
-    // Native stuff
-    private Processor inClient = new Processor(false);
-    private Processor outClient = new Processor(true);
-    private Processor inServer = new Processor(false);
-    private Processor outServer = new Processor(true);
+    // Reusable uncompressed batch buffers, only touched by the network worker
+    private final PendingBatch clientBatch = new PendingBatch();
+    private final PendingBatch serverBatch = new PendingBatch();
+
+    // Compression and encryption of batches, per direction
+    private final BatchProcessor inClient;
+    private final BatchProcessor outClient;
+    private final BatchProcessor inServer;
+    private final BatchProcessor outServer;
 
     //
     private boolean enableEncryption;
+    private boolean loginPending;
+
+    // Scheduling
+    private final AtomicBoolean scheduled = new AtomicBoolean( false );
+    private final AtomicBoolean overflowed = new AtomicBoolean( false );
+    private volatile long scheduledAt;
+    private boolean deferred;
+    private long lastPolled;
 
     /**
      * Constructs a new ProxiedConnection wrapping the given client connection.
      *
      * @param connectionManager The connection manager that created this connection
+     * @param worker            The network worker this connection is pinned to
      * @param clientConnection  The client connection to wrap
      */
-    public ProxiedConnection( ConnectionManager connectionManager, Connection clientConnection ) {
+    ProxiedConnection( ConnectionManager connectionManager, NetworkWorker worker, Connection clientConnection ) {
         this.clientConnection = clientConnection;
         this.connectionManager = connectionManager;
+        this.worker = worker;
+
+        this.encryptionHandler = new EncryptionHandler( connectionManager.getLoginExecutor() );
 
-        this.encryptionHandler = new EncryptionHandler();
+        this.clientPacketQueue = new OutboundQueue( PACKET_QUEUE_CAPACITY );
+        this.serverPacketQueue = new OutboundQueue( PACKET_QUEUE_CAPACITY );
 
-        this.clientPacketQueue = new LinkedList<>();
-        this.serverPacketQueue = new LinkedList<>();
+        this.inClient = BatchProcessor.create( connectionManager.getClientCompression(), false );
+        this.outClient = BatchProcessor.create( connectionManager.getClientCompression(), true );
+        this.inServer = BatchProcessor.create( connectionManager.getServerCompression(), false );
+        this.outServer = BatchProcessor.create( connectionManager.getServerCompression(), true );
     }
 
+    /**
+     * Enqueues a packet to be sent to the client. May be called from any thread.
+     *
+     * @param packet The packet to send
+     */
     public void sendToClient( Packet packet ) {
-        synchronized ( this.clientPacketQueue ) {
-            this.clientPacketQueue.add( packet );
+        FlushPolicy policy = this.connectionManager.getFlushPolicy();
+        if ( !this.clientPacketQueue.offer( packet, policy ) ) {
+            // The worker may flush its own queue to make room, everybody else has to give up
+            if ( !this.worker.isWorkerThread() || !this.flushToClient( System.nanoTime(), true ) ||
+                !this.clientPacketQueue.offer( packet, policy ) ) {
+                this.handleQueueOverflow( "client", packet );
+                return;
+            }
         }
+
+        this.worker.schedule( this );
     }
 
+    /**
+     * Enqueues a packet to be sent to the backend server. May be called from any thread.
+     *
+     * @param packet The packet to send
+     */
     public void sendToServer( Packet packet ) {
-        synchronized ( this.serverPacketQueue ) {
-            this.serverPacketQueue.add( packet );
+        FlushPolicy policy = this.connectionManager.getFlushPolicy();
+        if ( !this.serverPacketQueue.offer( packet, policy ) ) {
+            // The worker may flush its own queue to make room, everybody else has to give up
+            if ( !this.worker.isWorkerThread() || !this.flushToServer( System.nanoTime(), true ) ||
+                !this.serverPacketQueue.offer( packet, policy ) ) {
+                this.handleQueueOverflow( "server", packet );
+                return;
+            }
+        }
+
+        this.worker.schedule( this );
+    }
+
+    /**
+     * Gets the amount of packets waiting to be sent to the client.
+     *
+     * @return The depth of the clientbound packet queue
+     */
+    public int getClientQueueDepth() {
+        return this.clientPacketQueue.size();
+    }
+
+    /**
+     * Gets the amount of packets waiting to be sent to the backend server.
+     *
+     * @return The depth of the serverbound packet queue
+     */
+    public int getServerQueueDepth() {
+        return this.serverPacketQueue.size();
+    }
+
+    /**
+     * Gets the amount of packets which could not be enqueued because one of the packet queues was full.
+     *
+     * @return The amount of outbound queue overflows
+     */
+    public long getQueueOverflowCount() {
+        return this.clientPacketQueue.getOverflowCount() + this.serverPacketQueue.getOverflowCount();
+    }
+
+    private void handleQueueOverflow( String direction, Packet packet ) {
+        // The packet never made it into a queue, nobody else is going to free its data
+        this.releasePacket( packet );
+
+        // Dropping a single packet would break the game state, so we have to give up on this connection. The producer
+        // may be any thread, the worker owns the connection state and does the disconnect.
+        if ( this.overflowed.compareAndSet( false, true ) ) {
+            LOGGER.warn( "Outbound " + direction + " queue of " + this.clientConnection.getAddress() + " overflowed" );
+            this.worker.execute( () -> this.disconnect( "Outbound packet queue overflow" ) );
         }
     }
 
+    /**
+     * Gets the network worker this connection is pinned to.
+     *
+     * @return The network worker servicing this connection
+     */
+    NetworkWorker getWorker() {
+        return this.worker;
+    }
+
+    /**
+     * Marks this connection as scheduled for an update.
+     *
+     * @return true when the connection was not scheduled before and needs to be enqueued
+     */
+    boolean markScheduled() {
+        if ( this.scheduled.compareAndSet( false, true ) ) {
+            this.scheduledAt = System.nanoTime();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Clears the scheduled mark of this connection. This needs to happen before the update runs so that work
+     * submitted during the update schedules the connection again.
+     *
+     * @return the {@link System#nanoTime()} at which the connection has been scheduled
+     */
+    long clearScheduled() {
+        long scheduledAt = this.scheduledAt;
+        this.scheduled.set( false );
+        return scheduledAt;
+    }
+
+    /**
+     * Marks this connection as waiting for a deferred flush. Only used by the network worker.
+     *
+     * @return true when the connection was not marked before
+     */
+    boolean markDeferred() {
+        if ( this.deferred ) {
+            return false;
+        }
+
+        this.deferred = true;
+        return true;
+    }
+
+    /**
+     * Clears the deferred flush mark of this connection. Only used by the network worker.
+     */
+    void clearDeferred() {
+        this.deferred = false;
+    }
+
+    /**
+     * Remembers when this connection has been polled for inbound data. Only used by the network worker.
+     *
+     * @param now the {@link System#nanoTime()} of the poll about to happen
+     * @return the {@link System#nanoTime()} of the previous poll, 0 if there was none
+     */
+    long swapLastPolled( long now ) {
+        long lastPolled = this.lastPolled;
+        this.lastPolled = now;
+        return lastPolled;
+    }
+
     /**
      * Updates the proxied connection by polling all network packets which have been received since the last
      * invocation of this method.
+     *
+     * @return true when a packet has been received from the client or the server
      */
-    public void update() {
+    public boolean update() {
         if ( !this.clientConnection.isConnected() ) {
             // Nothing to updateLoop - we are not yet or no longer ready:
-            return;
+            this.releaseQueuedPackets( this.clientPacketQueue );
+            this.releaseQueuedPackets( this.serverPacketQueue );
+            this.releaseScratchBuffers();
+            this.closeBatchProcessors();
+            return false;
         }
 
         // Poll network packets and handle them accordingly:
         EncapsulatedPacket packet;
+        boolean received = false;
 
-        while ( ( packet = this.clientConnection.receive() ) != null ) {
+        while ( !this.loginPending && ( packet = this.clientConnection.receive() ) != null ) {
             if (this.enableEncryption) {
                 this.inClient.enableCrypto(this.encryptionHandler.getClientKey(), this.encryptionHandler.getClientIV());
                 this.enableEncryption = false;
             }
 
             this.handleServerboundPacketRaw( new PacketBuffer( packet.getPacketData() ) );
+            received = true;
         }
 
         if ( this.proxiedConnection != null && this.proxiedConnection.isConnected() ) {
             while ( ( packet = this.proxiedConnection.receive() ) != null ) {
                 this.handleClientboundPacketRaw( new PacketBuffer( packet.getPacketData() ) );
+                received = true;
             }
         }
 
-        // Send out all enqueued packets:
-        synchronized ( this.clientPacketQueue ) {
-            if ( this.clientPacketQueue.size() > 0 ) {
-                this.clientConnection.send( PacketReliability.RELIABLE_ORDERED, 0,
-                    this.batchPackets( this.clientPacketQueue, "Client" ) );
-            }
+        // Send out all enqueued packets the flush policy allows us to:
+        long now = System.nanoTime();
+        this.flushToClient( now, false );
+
+        if ( !this.flushToServer( now, false ) && this.proxySocket == null ) {
+            // Prevent unnecessary memory consumption, nothing is going to pick those packets up:
+            this.releaseQueuedPackets( this.serverPacketQueue );
         }
 
-        if ( this.proxiedConnection != null && this.proxiedConnection.isConnected() ) {
-            synchronized ( this.serverPacketQueue ) {
-                if ( this.serverPacketQueue.size() > 0 ) {
-                    this.proxiedConnection.send( PacketReliability.RELIABLE_ORDERED, 0,
-                        this.batchPackets( this.serverPacketQueue, "Server" ) );
-                }
-            }
-        } else {
-            synchronized ( this.serverPacketQueue ) {
-                // Prevent unnecessary memory consumption:
-                this.serverPacketQueue.clear();
+        return received;
+    }
+
+    /**
+     * Drops all packets in the given queue and releases the buffers they hold. Must only be called by the network
+     * worker.
+     *
+     * @param queue The queue to drain
+     */
+    private void releaseQueuedPackets( OutboundQueue queue ) {
+        Packet packet;
+        while ( ( packet = queue.poll() ) != null ) {
+            this.releasePacket( packet );
+        }
+    }
+
+    /**
+     * Releases a packet after it has been written or dropped: frees the raw data of passthrough and lazy packets.
+     * Queued packets must only be released by the network worker.
+     *
+     * @param packet The packet to release
+     */
+    private void releasePacket( Packet packet ) {
+        if ( packet instanceof PacketPassthrough ) {
+            ( (PacketPassthrough) packet ).release();
+            return;
+        }
+
+        if ( packet instanceof LazyPacket ) {
+            ( (LazyPacket) packet ).release();
+        }
+    }
+
+    /**
+     * Sends the packets queued for the client if the flush policy says so. Must only be called by the network worker.
+     *
+     * @param now   The current {@link System#nanoTime()}
+     * @param force Whether or not to ignore the flush policy and send everything that is queued
+     * @return Whether or not the client connection was able to take the packets
+     */
+    private boolean flushToClient( long now, boolean force ) {
+        if ( !this.clientConnection.isConnected() ) {
+            return false;
+        }
+
+        this.flush( this.clientPacketQueue, this.clientConnection, false, now, force );
+        return true;
+    }
+
+    /**
+     * Sends the packets queued for the backend server if the flush policy says so. Must only be called by the
+     * network worker.
+     *
+     * @param now   The current {@link System#nanoTime()}
+     * @param force Whether or not to ignore the flush policy and send everything that is queued
+     * @return Whether or not the backend connection was able to take the packets
+     */
+    private boolean flushToServer( long now, boolean force ) {
+        Connection connection = this.proxiedConnection;
+        if ( connection == null || !connection.isConnected() ) {
+            return false;
+        }
+
+        this.flush( this.serverPacketQueue, connection, true, now, force );
+        return true;
+    }
+
+    private void flush( OutboundQueue queue, Connection connection, boolean toServer, long now, boolean force ) {
+        FlushPolicy policy = this.connectionManager.getFlushPolicy();
+        if ( !force && !queue.shouldFlush( policy, now ) ) {
+            if ( !queue.isEmpty() ) {
+                // Come back once the oldest packet lingered long enough
+                this.worker.defer( this, queue.getFlushDeadline( policy, now ) );
             }
+
+            return;
+        }
+
+        long waited = queue.beginFlush( now );
+        PendingBatch batch = toServer ? this.serverBatch : this.clientBatch;
+        BatchProcessor processor = toServer ? this.outServer : this.outClient;
+        while ( !queue.isEmpty() ) {
+            this.writePackets( queue, batch, policy );
+            this.sendBatch( connection, batch, processor, waited );
         }
     }
 
@@ -160,25 +397,8 @@ public class ProxiedConnection {
                     packet.deserialize( raw );
                     this.handleClientboundPacket( packet );
                 } else {
-                    // Unknown packet -> direct passthrough:
-                    System.out.println( "Unknown packet with ID " + packetID );
-
-                    byte[] data = new byte[raw.getRemaining()];
-                    raw.readBytes( data );
-
-                    Packet packet1 = new Packet( packetID ) {
-                        @Override
-                        public void serialize( PacketBuffer buffer ) {
-                            buffer.writeBytes( data );
-                        }
-
-                        @Override
-                        public void deserialize( PacketBuffer buffer ) {
-
-                        }
-                    };
-
-                    this.clientPacketQueue.add( packet1 );
+                    // Not decoded -> forward as it came in
+                    this.sendToClient( this.passthroughRawPacket( packetID, raw ) );
                 }
             }
         }
@@ -209,60 +429,84 @@ public class ProxiedConnection {
                     packet.deserialize( raw );
                     this.handleServerboundPacket( packet );
                 } else {
-                    // Unknown packet -> direct passthrough:
-                    LOGGER.info( "Unknown packet with ID " + packetID );
-
-                    byte[] data = new byte[raw.getRemaining()];
-                    raw.readBytes( data );
-
-                    System.out.println( Util.toHexString( data ) );
-
-                    Packet packet1 = new Packet( packetID ) {
-                        @Override
-                        public void serialize( PacketBuffer buffer ) {
-                            buffer.writeBytes( data );
-                        }
-
-                        @Override
-                        public void deserialize( PacketBuffer buffer ) {
-
-                        }
-                    };
-
-                    this.serverPacketQueue.add( packet1 );
-                    // TODO: Implement direct passthrough here
-                    // buffer.skip( buffer.getRemaining() );
+                    // Not decoded -> forward as it came in
+                    this.sendToServer( this.passthroughRawPacket( packetID, raw ) );
                 }
             }
         }
     }
 
     /**
-     * Attempts to connect to the specified backend server, disconnecting the client if the connection attempt fails.
+     * Wraps the rest of a packet received outside of a batch into a passthrough packet. The packet keeps a retained
+     * slice of the received data including its one byte header, so it is written back out as it came in.
      *
-     * @param address The address of the backend server to connect to
+     * @param packetID The ID of the packet which has just been read
+     * @param raw      The raw data positioned right behind the ID, it is fully consumed
+     * @return The passthrough packet
      */
-    public void connectToBackendServer( InetSocketAddress address ) {
-        if ( this.proxySocket != null ) {
-            this.proxySocket.close();
-            this.proxiedConnection = null;
+    private PacketPassthrough passthroughRawPacket( byte packetID, PacketBuffer raw ) {
+        ByteBuf in = raw.getBuffer();
+        int start = in.readerIndex() - 1;
+
+        PacketPassthrough packet = new PacketPassthrough( packetID & 0xFF, in.retainedSlice( start, in.writerIndex() - start ) );
+        in.skipBytes( in.readableBytes() );
+        return packet;
+    }
+
+    /**
+     * Routes the client to a backend server picked by the backend pool, disconnecting the client if all of them are
+     * full or unhealthy.
+     */
+    public void connectToBackend() {
+        Backend backend = this.connectionManager.getProxy().getBackendPool().acquire( this.encryptionHandler.getClientUUID() );
+        if ( backend == null ) {
+            this.disconnect( "No backend server available" );
+            return;
         }
 
-        this.proxySocket = new ClientSocket();
-        this.proxySocket.setMojangModificationEnabled( true );
+        this.connectToBackendServer( backend );
+    }
 
+    /**
+     * Attempts to connect to the specified backend server, disconnecting the client if the connection attempt fails.
+     *
+     * @param backend The backend server to connect to, the client has to be counted on it already
+     */
+    public void connectToBackendServer( Backend backend ) {
+        this.closeBackendConnection();
+        this.backend.set( backend );
+
+        InetSocketAddress address = backend.getAddress();
         try {
-            this.proxySocket.initialize();
+            this.proxySocket = this.connectionManager.getBackendSockets().open();
         } catch ( SocketException e ) {
             LOGGER.error( "Failed to establish connection to backend server: " + address.toString(), e );
 
             // Disconnect client -> will cause connection manager to remove this proxied connection from its maps:
+            this.releaseBackend();
             this.clientConnection.disconnect( "Failed to connect to backend server" );
             return;
         }
 
-        this.proxySocket.setEventHandler( new ProxySocketEventHandler() );
-        this.proxySocket.ping( address );
+        this.proxySocket.setEventHandler( new ProxySocketEventHandler( this.proxySocket, backend ) );
+
+        // Skip the ping when we know where the backend wants to be connected to
+        InetSocketAddress gameAddress = this.connectionManager.getProxy().getBackendDiscovery().getGameAddress( backend );
+        if ( gameAddress != null ) {
+            this.proxySocket.connect( gameAddress );
+        } else {
+            this.proxySocket.ping( address );
+        }
+    }
+
+    /**
+     * Stops counting the client on its backend server, does nothing when it has been released already.
+     */
+    private void releaseBackend() {
+        Backend backend = this.backend.getAndSet( null );
+        if ( backend != null ) {
+            backend.release();
+        }
     }
 
     /**
@@ -287,23 +531,38 @@ public class ProxiedConnection {
             this.clientConnection.disconnect( reason );
         }
 
-        if ( this.proxiedConnection != null && this.proxiedConnection.isConnected() ) {
-            this.proxiedConnection.disconnect( "" );
-            this.proxiedConnection = null;
+        this.closeBackendConnection();
+    }
+
+    /**
+     * Closes the connection to the backend server together with its socket and stops counting the client on the
+     * backend. Does nothing when there is no backend connection.
+     */
+    private void closeBackendConnection() {
+        Connection connection = this.proxiedConnection;
+        this.proxiedConnection = null;
+        if ( connection != null && connection.isConnected() ) {
+            connection.disconnect( "" );
         }
 
-        if ( this.proxySocket != null ) {
-            this.proxySocket.close();
-            this.proxySocket = null;
+        ClientSocket socket = this.proxySocket;
+        this.proxySocket = null;
+        if ( socket != null ) {
+            this.connectionManager.getBackendSockets().close( socket );
         }
+
+        this.releaseBackend();
     }
 
     /**
      * Cleans up any internally allocated resources.
      */
     protected void performCleanup() {
-        //this.cachedInflater.end();
-        //this.cachedDeflater.end();
+        // The backend socket would otherwise keep its UDP socket and receive thread until the backend times out
+        this.closeBackendConnection();
+
+        // Queued packets may only be released by the worker, let it see that the client is gone
+        this.worker.schedule( this );
     }
 
     /**
@@ -316,9 +575,17 @@ public class ProxiedConnection {
             case PacketRegistry.PACKET_SERVER_HANDSHAKE:
                 this.handleServerHandshake( (PacketServerHandshake) packet );
                 break;
+            case PacketRegistry.PACKET_START_GAME:
+                // Decoding the item table costs a full parse of the packet, it only has to be captured once
+                if ( !AssetAssembler.hasLegacyItems() ) {
+                    AssetAssembler.writeLegacyItems( ( (PacketStartGame) packet ).getItemLegacyIds() );
+                }
+
+                this.sendToClient( packet );
+                break;
             default:
                 // Pass packets to client
-                this.clientPacketQueue.add( packet );
+                this.sendToClient( packet );
                 break;
         }
     }
@@ -331,14 +598,19 @@ public class ProxiedConnection {
     private void handleServerboundPacket( Packet packet ) {
         switch ( packet.getId() ) {
             case PacketRegistry.PACKET_CLIENT_HANDSHAKE:
-                this.handleClientHandshake( (PacketLogin) packet );
+                try {
+                    this.handleClientHandshake( (PacketLogin) packet );
+                } finally {
+                    // The login is consumed here, the backend gets a forged one
+                    this.releasePacket( packet );
+                }
                 break;
             case PacketRegistry.PACKET_ENCRYPTION_READY:
                 this.outClient.enableCrypto(this.encryptionHandler.getClientKey(), this.encryptionHandler.getClientIV());
                 this.encryptionHandler.setEncryptionToClientEnabled( true );
                 break;
             default:
-                this.serverPacketQueue.add( packet );
+                this.sendToServer( packet );
                 break;
         }
     }
@@ -351,54 +623,124 @@ public class ProxiedConnection {
     private void handleClientHandshake( PacketLogin packet ) {
         LOGGER.info( "Client protocol version: " + packet.getProtocol() );
 
+        // Chain validation, ECDH and forging are way too expensive for the network worker, stop reading from the
+        // client until the login executor is done
+        byte[] payload = packet.getPayload();
+        this.loginPending = true;
+
+        boolean accepted = this.connectionManager.getLoginExecutor().submit( () -> {
+            String jwt = null;
+
+            // CHECKSTYLE:OFF
+            try {
+                jwt = this.performClientHandshake( payload );
+            } catch ( Exception e ) {
+                LOGGER.error( "Could not perform client handshake", e );
+            }
+            // CHECKSTYLE:ON
+
+            String handshakeJwt = jwt;
+            this.worker.execute( () -> this.completeClientHandshake( handshakeJwt ) );
+        } );
+
+        if ( !accepted ) {
+            this.loginPending = false;
+            this.clientConnection.disconnect( "Server is busy, please try again in a moment" );
+        }
+    }
+
+    /**
+     * Validates the client's login chain, sets up the client's side of encryption and forges the proxy's encryption
+     * handshake. Runs on the login executor.
+     *
+     * @param payload The payload of the client's login packet
+     * @return The JWT of the handshake to send to the client or null if the login is invalid
+     */
+    private String performClientHandshake( byte[] payload ) {
         // More data please
-        ByteBuffer byteBuffer = ByteBuffer.wrap( packet.getPayload() );
+        ByteBuffer byteBuffer = ByteBuffer.wrap( payload );
         byteBuffer.order( ByteOrder.LITTLE_ENDIAN );
         byte[] stringBuffer = new byte[byteBuffer.getInt()];
         byteBuffer.get( stringBuffer );
 
         this.encryptionHandler.supplyClientJWTChain( new String( stringBuffer ) );
-        if ( this.encryptionHandler.hasObligatoryInformation() ) {
-            this.encryptionHandler.beginClientsideEncryption();
+        if ( !this.encryptionHandler.hasObligatoryInformation() ) {
+            return null;
+        }
 
-            // Parse skin
-            byte[] skin = new byte[byteBuffer.getInt()];
-            byteBuffer.get( skin );
+        // Parse skin, it has to be signed by a key of the client's chain since the proxy re-signs it for the backend
+        byte[] skin = new byte[byteBuffer.getInt()];
+        byteBuffer.get( skin );
 
-            JwtToken skinToken = JwtToken.parse( new String( skin ) );
+        JwtToken skinToken = JwtToken.parse( new String( skin ) );
+        PublicKey skinKey = this.encryptionHandler.getTrustedKeys().get( skinToken.getHeader().getProperty( "x5u" ) );
 
-            try {
-                skinToken.validateSignature( JwtAlgorithm.ES384, this.encryptionHandler.getTrustedKeys().get( skinToken.getHeader().getProperty( "x5u" ) ) );
-                this.skinData = skinToken.getClaims();
-            } catch ( JwtSignatureException e ) {
-                e.printStackTrace();
-            }
+        boolean skinValid;
+        try {
+            skinValid = skinKey != null && skinToken.validateSignature( JwtAlgorithm.ES384, skinKey );
+        } catch ( JwtSignatureException e ) {
+            LOGGER.warn( "Could not verify skin JWT of {}", this.encryptionHandler.getClientUsername(), e );
+            skinValid = false;
+        }
+
+        if ( !skinValid ) {
+            LOGGER.warn( "Skin JWT of {} does not verify against its chain, rejecting login", this.encryptionHandler.getClientUsername() );
+            return null;
+        }
+
+        // The claims are forwarded as they are, the backend only gets them re-signed by the proxy
+        this.skinClaims = extractClaimsSegment( skin );
+
+        this.encryptionHandler.beginClientsideEncryption();
 
-            EncryptionRequestForger forger = new EncryptionRequestForger();
-            String jwt = forger.forge( this.encryptionHandler.getProxyPublic(), this.encryptionHandler.getProxyPrivate(), this.encryptionHandler.getClientSalt() );
+        EncryptionRequestForger forger = new EncryptionRequestForger();
+        String jwt = forger.forge( this.encryptionHandler.getProxyPublic(), this.encryptionHandler.getProxyPrivate(), this.encryptionHandler.getClientSalt() );
 
+        if ( this.connectionManager.getSelfVerificationPolicy().shouldVerify() ) {
             JwtToken token = JwtToken.parse( jwt );
             String keyDataBase64 = (String) token.getHeader().getProperty( "x5u" );
-            Key key = MojangChainValidator.createPublicKey( keyDataBase64 );
+            Key key = MojangChainValidator.getCachedPublicKey( keyDataBase64 );
 
             try {
                 if ( token.validateSignature( key ) ) {
                     LOGGER.debug( "For client: Valid encryption start JWT" );
+                } else {
+                    LOGGER.warn( "Forged encryption start JWT does not verify against the proxy key" );
                 }
             } catch ( JwtSignatureException e ) {
                 e.printStackTrace();
             }
+        }
 
-            PacketServerHandshake handshake = new PacketServerHandshake();
-            handshake.setJwtData( jwt );
+        return jwt;
+    }
 
-            LOGGER.debug( "Sending proxy encryption handshake JWT: {}", jwt );
-            this.sendToClient( handshake );
-            this.enableEncryption = true;
-            this.connectToBackendServer( this.connectionManager.getProxy().getFallbackServer() );
-        } else {
+    /**
+     * Continues the login on the network worker once the login executor is done with the client's handshake.
+     *
+     * @param jwt The JWT of the handshake to send to the client or null if the login is invalid
+     */
+    private void completeClientHandshake( String jwt ) {
+        this.loginPending = false;
+        if ( !this.clientConnection.isConnected() ) {
+            return;
+        }
+
+        if ( jwt == null ) {
             this.clientConnection.disconnect( "Invalid Handshake" );
+            return;
         }
+
+        PacketServerHandshake handshake = new PacketServerHandshake();
+        handshake.setJwtData( jwt );
+
+        LOGGER.debug( "Sending proxy encryption handshake JWT: {}", jwt );
+        this.sendToClient( handshake );
+        this.enableEncryption = true;
+        this.connectToBackend();
+
+        // Pick up what the client sent while we were busy
+        this.worker.schedule( this );
     }
 
     /**
@@ -410,7 +752,7 @@ public class ProxiedConnection {
         // We need to verify the JWT request
         JwtToken token = JwtToken.parse( packet.getJwtData() );
         String keyDataBase64 = (String) token.getHeader().getProperty( "x5u" );
-        Key key = MojangChainValidator.createPublicKey( keyDataBase64 );
+        Key key = MojangChainValidator.getCachedPublicKey( keyDataBase64 );
 
         try {
             if ( token.validateSignature( key ) ) {
@@ -435,77 +777,141 @@ public class ProxiedConnection {
     /**
      * Invoked whenever our proxied server connection got ready and we should now send a handshake and such.
      */
-    @SuppressWarnings( "unchecked" )
     private void notifyProxiedConnectionAvailable() {
         // Send our handshake to the server -> this will trigger it to respond with a 0x03 ServerHandshake packet:
-        MojangLoginForger mojangLoginForger = new MojangLoginForger();
-        mojangLoginForger.setPublicKey( EncryptionHandler.PROXY_KEY_PAIR.getPublic() );
-        mojangLoginForger.setUsername( this.encryptionHandler.getClientUsername() );
-        mojangLoginForger.setUUID( this.encryptionHandler.getClientUUID() );
-        mojangLoginForger.setSkinData( this.skinData );
-
-        String jwt = "{\"chain\":[\"" + mojangLoginForger.forge( EncryptionHandler.PROXY_KEY_PAIR.getPrivate() ) + "\"]}";
-        String skin = mojangLoginForger.forgeSkin( EncryptionHandler.PROXY_KEY_PAIR.getPrivate() );
-
-        // More data please
-        ByteBuffer byteBuffer = ByteBuffer.allocate( jwt.length() + skin.length() + 8 );
-        byteBuffer.order( ByteOrder.LITTLE_ENDIAN );
-        byteBuffer.putInt( jwt.length() );
-        byteBuffer.put( jwt.getBytes() );
-
-        // We need the skin
-        byteBuffer.putInt( skin.length() );
-        byteBuffer.put( skin.getBytes() );
+        byte[] payload = this.encryptionHandler.getLoginForger().forgeLoginPayload( this.encryptionHandler.getClientUsername(),
+            this.encryptionHandler.getClientUUID(), this.skinClaims );
+        if ( payload == null ) {
+            this.clientConnection.disconnect( "Could not forge login for the backend server" );
+            return;
+        }
 
         PacketLogin packetLogin = new PacketLogin();
         packetLogin.setProtocol( 419 );
-        packetLogin.setPayload( byteBuffer.array() );
+        packetLogin.setPayload( payload );
         this.sendToServer(packetLogin);
     }
 
     /**
-     * Interprets the next one to two bytes as a packet ID and returns the actual packet ID without the
-     * optional 0xFE prefix.
+     * Get the claims segment of a JWT as it has been sent, in whichever base64 alphabet and padding the sender used
      *
-     * @param buffer The packet buffer to read data from
+     * @param token The ASCII bytes of the JWT
+     * @return The bytes between the first and the second dot, empty if the token is malformed
+     */
+    private static byte[] extractClaimsSegment( byte[] token ) {
+        int start = -1;
+        for ( int i = 0; i < token.length; i++ ) {
+            if ( token[i] == '.' ) {
+                if ( start == -1 ) {
+                    start = i + 1;
+                } else {
+                    return Arrays.copyOfRange( token, start, i );
+                }
+            }
+        }
+
+        return new byte[0];
+    }
+
+    /**
+     * Reads the packet header and returns the actual packet ID without the sender and target sub client bits.
+     *
+     * @param buffer The buffer to read data from
      * @return The actual packet ID extracted from the given buffer
      */
-    private int extractRealPacketID( PacketBuffer buffer ) {
-        int id = buffer.readUnsignedVarInt();
+    private int extractRealPacketID( ByteBuf buffer ) {
+        int id = readVarInt( buffer );
         return id & 0x3FF;
     }
 
-    private ByteBuf writePackets(Queue<Packet> packets) {
-        // Write all packets into the inBuf for compression
-        PacketBuffer buffer = new PacketBuffer(16);
-        ByteBuf inBuf = newNettyBuffer();
+    /**
+     * Writes queued packets into the given batch until the queue is empty or the batch is full.
+     *
+     * @param packets The queue to drain
+     * @param batch   The batch to write into, it has to be empty
+     * @param policy  The flush policy which limits the size of the batch
+     */
+    private void writePackets(OutboundQueue packets, PendingBatch batch, FlushPolicy policy) {
+        // Write packets until the batch is full
+        Packet packet;
+        while ( !batch.isFull(policy) && ( packet = packets.poll() ) != null ) {
+            if (this.writePacket(packet, batch)) {
+                batch.addPacket();
+            }
+        }
+    }
+
+    /**
+     * Writes a packet into the given batch. Packets are serialized directly into the scratch buffer, the length
+     * prefix is reserved up front (sized by {@link Packet#estimateLength()}) and patched once the real length is
+     * known. The data held by the packet is released afterwards.
+     *
+     * @param packet The packet to write
+     * @param batch  The batch to write into
+     * @return Whether or not the packet has been written
+     */
+    private boolean writePacket(Packet packet, PendingBatch batch) {
+        try {
+            return this.serializePacket(packet, batch);
+        } finally {
+            this.releasePacket(packet);
+        }
+    }
 
-        while ( !packets.isEmpty() ) {
-            Packet packet = packets.poll();
+    private boolean serializePacket(Packet packet, PendingBatch batch) {
+        ByteBuf inBuf = batch.getBuffer();
 
-            buffer.setReadPosition(0);
-            buffer.setWritePosition(0);
+        if ( packet instanceof PacketPassthrough ) {
+            // Forward the original bytes, header included
+            PacketPassthrough passthrough = (PacketPassthrough) packet;
+            ByteBuf data = passthrough.getData();
+            writeVarInt(data.readableBytes(), inBuf);
+            inBuf.writeBytes(data, data.readerIndex(), data.readableBytes());
+            return true;
+        }
 
-            // CHECKSTYLE:OFF
-            try {
-                LOGGER.debug("Writing (batch) packet: {}", packet.getClass().getName());
+        int lengthIndex = inBuf.writerIndex();
 
-                packet.serializeHeader(buffer);
-                packet.serialize(buffer);
+        // CHECKSTYLE:OFF
+        try {
+            LOGGER.debug("Writing (batch) packet: {}", packet.getClass().getName());
 
-                writeVarInt(buffer.getWritePosition(), inBuf);
-                inBuf.writeBytes(buffer.getBuffer());
-            } catch (Exception e) {
-                LOGGER.error("Could not serialize packet", e);
+            int estimate = packet.estimateLength();
+            int reserved = estimate < 0 ? 1 : varIntSize(estimate + varIntSize(packet.getId()));
+            inBuf.writeZero(reserved);
+            if (estimate > 0) {
+                inBuf.ensureWritable(estimate + 5);
             }
-            // CHECKSTYLE:ON
-        }
 
-        return inBuf;
-    }
+            int start = inBuf.writerIndex();
+            PacketBuffer buffer = batch.getPacketBuffer();
+            packet.serializeHeader(buffer);
+            packet.serialize(buffer);
+
+            int length = inBuf.writerIndex() - start;
+            int needed = varIntSize(length);
+            if (needed != reserved) {
+                // Estimate was off, move the packet so the length prefix fits. Source and target overlap and
+                // setBytes does not promise memmove semantics for every buffer type, so go through a copy
+                ByteBuf body = inBuf.copy(start, length);
+                try {
+                    inBuf.ensureWritable(Math.max(0, needed - reserved));
+                    inBuf.setBytes(lengthIndex + needed, body, 0, length);
+                } finally {
+                    body.release();
+                }
 
-    private ByteBuf newNettyBuffer() {
-        return PooledByteBufAllocator.DEFAULT.directBuffer();
+                inBuf.writerIndex(lengthIndex + needed + length);
+            }
+
+            setVarInt(length, inBuf, lengthIndex);
+            return true;
+        } catch (Exception e) {
+            LOGGER.error("Could not serialize packet", e);
+            inBuf.writerIndex(lengthIndex);
+            return false;
+        }
+        // CHECKSTYLE:ON
     }
 
     private void writeVarInt(int value, ByteBuf stream) {
@@ -517,26 +923,103 @@ public class ProxiedConnection {
         stream.writeByte(value);
     }
 
-    private PacketBuffer batchPackets( Queue<Packet> queue, String direction ) {
-        // Assemble uncompressed contents:
-        ByteBuf raw = writePackets(queue);
+    private static void setVarInt(int value, ByteBuf stream, int index) {
+        while ((value & -128) != 0) {
+            stream.setByte(index++, value & 127 | 128);
+            value >>>= 7;
+        }
+
+        stream.setByte(index, value);
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & -128) != 0) {
+            value >>>= 7;
+            size++;
+        }
+
+        return size;
+    }
+
+    private static int readVarInt(ByteBuf stream) {
+        int value = 0;
+        int shift = 0;
+        byte in;
+        do {
+            if (shift >= 35) {
+                throw new IllegalStateException("VarInt too big");
+            }
+
+            in = stream.readByte();
+            value |= (in & 127) << shift;
+            shift += 7;
+        } while ((in & 128) != 0);
+
+        return value;
+    }
+
+    /**
+     * Encodes the given batch and sends it.
+     * <p>
+     * Buffer ownership: the uncompressed data lives in a scratch buffer owned by the batch and reused for every batch,
+     * see {@link BatchScratchBuffer}. The compressed / encrypted buffer returned by the {@link BatchProcessor}
+     * belongs to us and is released as soon as it has been copied into the batch packet. The batch packet is handed
+     * over to jraknet which keeps it around for resends, so it is a plain heap buffer left to the garbage collector.
+     *
+     * @param connection The connection to send the batch to
+     * @param batch      The batch to send, it is reset afterwards
+     * @param processor  The processor compressing and encrypting the batch
+     * @param waited     How long the oldest packet of this flush waited, only used for metrics
+     */
+    private void sendBatch( Connection connection, PendingBatch batch, BatchProcessor processor, long waited ) {
+        if ( batch.isEmpty() ) {
+            batch.reset();
+            return;
+        }
 
         ByteBuf out;
-        if (direction.equals("Server")) {
-            out = this.outServer.process(raw);
-        } else {
-            out = this.outClient.process(raw);
+        try {
+            ByteBuf raw = batch.getBuffer();
+            this.worker.recordBatch( waited, raw.readableBytes(), batch.getPacketCount() );
+            out = processor.process( raw );
+        } finally {
+            batch.reset();
         }
 
-        // Now serialize the batch packet:
-        PacketBuffer buffer = new PacketBuffer( 1 + out.readableBytes() );
-        buffer.writeByte( (byte) 0xFE );
-        buffer.writeBytes( out );
-        return buffer;
+        try {
+            // Now serialize the batch packet:
+            PacketBuffer buffer = new PacketBuffer( 1 + out.readableBytes() );
+            buffer.writeByte( PacketRegistry.PACKET_BATCH );
+            buffer.writeBytes( out );
+            connection.send( PacketReliability.RELIABLE_ORDERED, 0, buffer );
+        } finally {
+            out.release();
+        }
     }
 
     /**
-     * Extracts all packets contained in the batch packet encoded in the specified bufer.
+     * Releases the scratch buffers of this connection. Must only be called by the network worker.
+     */
+    private void releaseScratchBuffers() {
+        this.clientBatch.release();
+        this.serverBatch.release();
+    }
+
+    /**
+     * Frees the batch processors of this connection. Must only be called by the network worker.
+     */
+    private void closeBatchProcessors() {
+        this.inClient.close();
+        this.outClient.close();
+        this.inServer.close();
+        this.outServer.close();
+    }
+
+    /**
+     * Extracts all packets contained in the batch packet encoded in the specified bufer. Packets which are not
+     * registered are not decoded at all, they keep a retained slice of the decompressed batch and are written back
+     * out as they came in.
      *
      * @param buffer The buffer to read the batch packet from
      * @return All packets found inside the given batch packet
@@ -550,42 +1033,34 @@ public class ProxiedConnection {
         }
 
         List<Packet> packets = new ArrayList<>();
-        PacketBuffer payload = new PacketBuffer( in );
-
-        while ( payload.getRemaining() > 0 ) {
-            int packetLength = payload.readUnsignedVarInt();
-
-            byte[] pyLoad = new byte[packetLength];
-            payload.readBytes( pyLoad );
 
-            PacketBuffer buffer1 = new PacketBuffer( packetLength );
-            buffer1.writeBytes(pyLoad);
+        try {
+            while ( in.isReadable() ) {
+                int packetLength = readVarInt( in );
+                int packetStart = in.readerIndex();
 
-            int packetID = this.extractRealPacketID( buffer1 );
-            Packet packet = PacketRegistry.createFromID( packetID );
-            if ( packet == null ) {
-                byte[] packetPayload = new byte[buffer1.getRemaining()];
-                buffer1.readBytes( packetPayload );
+                ByteBuf packetData = in.slice( packetStart, packetLength );
+                in.skipBytes( packetLength );
 
-                // Add dummy packet
-                packets.add( new Packet( packetID ) {
-                    @Override
-                    public void serialize( PacketBuffer buffer ) {
-                        buffer.writeBytes( packetPayload );
-                    }
-
-                    @Override
-                    public void deserialize( PacketBuffer buffer ) {
+                int packetID = this.extractRealPacketID( packetData );
+                PacketMode mode = PacketRegistry.getMode( packetID );
+                if ( mode == PacketMode.DROP ) {
+                    continue;
+                }
 
-                    }
-                } );
+                Packet packet = mode == PacketMode.DECODE ? PacketRegistry.createFromID( packetID ) : null;
+                if ( packet == null ) {
+                    packets.add( new PacketPassthrough( packetID, in.retainedSlice( packetStart, packetLength ) ) );
+                    continue;
+                }
 
-                continue;
+                LOGGER.debug( "Unpacked packet: {}", packet.getClass().getName() );
+                packet.deserialize( new PacketBuffer( packetData ) );
+                packets.add( packet );
             }
-
-            LOGGER.debug("Unpacked packet: " + packet.getClass().getName());
-            packet.deserialize( buffer1 );
-            packets.add( packet );
+        } finally {
+            // Passthrough packets hold their own reference to the decompressed data
+            in.release();
         }
 
         buffer.skip( buffer.getRemaining() );
@@ -595,23 +1070,43 @@ public class ProxiedConnection {
 
     private class ProxySocketEventHandler implements SocketEventHandler {
 
+        private final ClientSocket socket;
+        private final Backend backend;
+
+        private ProxySocketEventHandler( ClientSocket socket, Backend backend ) {
+            this.socket = socket;
+            this.backend = backend;
+        }
+
         @Override
         public void onSocketEvent( Socket socket, SocketEvent socketEvent ) {
+            // Late events of a socket which has been replaced or closed must not drive the current one
+            if ( socket != this.socket || ProxiedConnection.this.proxySocket != this.socket ) {
+                return;
+            }
+
             switch ( socketEvent.getType() ) {
                 case UNCONNECTED_PONG:
-                    String[] split = socketEvent.getPingPongInfo().getMotd().split(";");
-
-                    int port = Integer.parseInt(split[split.length - 2]);
+                    InetSocketAddress gameAddress = ProxiedConnection.this.connectionManager.getProxy().getBackendDiscovery()
+                        .update( socketEvent.getPingPongInfo().getAddress(), socketEvent.getPingPongInfo().getMotd() );
+                    if ( gameAddress == null ) {
+                        this.backend.markFailure();
+                        ProxiedConnection.this.disconnect( "Backend server sent an invalid pong" );
+                        break;
+                    }
 
-                    ProxiedConnection.this.proxySocket.connect(new InetSocketAddress( ((InetSocketAddress) socketEvent.getPingPongInfo().getAddress()).getHostName(), port));
+                    this.socket.connect( gameAddress );
                     break;
                 case CONNECTION_ATTEMPT_FAILED:
+                    this.backend.markFailure();
                     ProxiedConnection.this.proxiedConnection = null;
                     ProxiedConnection.this.disconnect( "Failed to connect to backend server" );
                     break;
                 case CONNECTION_ATTEMPT_SUCCEEDED:
-                    ProxiedConnection.this.proxiedConnection = ProxiedConnection.this.proxySocket.getConnection();
+                    this.backend.markSuccess();
+                    ProxiedConnection.this.proxiedConnection = this.socket.getConnection();
                     ProxiedConnection.this.notifyProxiedConnectionAvailable();
+                    ProxiedConnection.this.worker.schedule( ProxiedConnection.this );
                     LOGGER.info( "Connected to backend server" );
                     break;
 
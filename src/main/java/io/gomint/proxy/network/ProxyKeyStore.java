@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the key pair the proxy uses towards clients and backend servers. Both keys are stored together in one file,
+ * the base64 encoded X.509 public key on the first line and the PKCS#8 private key on the second, and loaded from it
+ * on startup, so backends which pin the proxy key keep working across restarts. The file is written next to its
+ * target and moved over it atomically, so a crash never leaves a public key behind which does not belong to the
+ * private key. A stored pair is only used after a test signature made with the private key verified with the public
+ * key; a new key pair is generated when the file is missing, unreadable or holds a mismatched pair, or when the key
+ * is rotated.
+ * <p>
+ * The public key is additionally exported into its own file for operators who pin it on their backends. That file is
+ * never read back.
+ * <p>
+ * Rotating replaces the key pair for new logins only, connections keep the key pair they started with.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+public class ProxyKeyStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( ProxyKeyStore.class );
+    private static final String SIGNATURE_ALGORITHM = "SHA384withECDSA";
+
+    private final File keyFile;
+    private final File publicKeyFile;
+    private volatile KeyPair keyPair;
+    private ScheduledExecutorService rotationExecutor;
+
+    /**
+     * Create a new key store
+     *
+     * @param keyFile       file holding the key pair
+     * @param publicKeyFile file the public key is exported to
+     */
+    public ProxyKeyStore( File keyFile, File publicKeyFile ) {
+        this.keyFile = keyFile;
+        this.publicKeyFile = publicKeyFile;
+    }
+
+    public KeyPair getKeyPair() {
+        return this.keyPair;
+    }
+
+    /**
+     * Load the stored key pair or generate and store a new one when there is none or it is broken
+     *
+     * @throws GeneralSecurityException when BouncyCastle can't generate secp384r1 keys
+     */
+    public void load() throws GeneralSecurityException {
+        if ( this.keyFile.exists() ) {
+            try {
+                KeyPair stored = this.read();
+                if ( isMatchingPair( stored ) ) {
+                    this.keyPair = stored;
+                    LOGGER.info( "Loaded proxy key pair from " + this.keyFile );
+                    return;
+                }
+
+                LOGGER.warn( "Stored proxy keys in " + this.keyFile + " don't belong together, generating a new pair" );
+            } catch ( IOException | GeneralSecurityException | IllegalArgumentException e ) {
+                LOGGER.warn( "Could not load stored proxy key pair, generating a new one", e );
+            }
+        }
+
+        this.rotate();
+    }
+
+    /**
+     * Generate and store a new key pair
+     *
+     * @throws GeneralSecurityException when BouncyCastle can't generate secp384r1 keys
+     */
+    public synchronized void rotate() throws GeneralSecurityException {
+        KeyPair generated = generate();
+
+        try {
+            this.write( generated );
+        } catch ( IOException e ) {
+            LOGGER.warn( "Could not store proxy key pair, it will be lost on restart", e );
+        }
+
+        this.keyPair = generated;
+        LOGGER.info( "Generated new proxy key pair" );
+    }
+
+    /**
+     * Rotate the key pair periodically
+     *
+     * @param period between two rotations
+     * @param unit   of the period
+     */
+    public synchronized void scheduleRotation( long period, TimeUnit unit ) {
+        if ( this.rotationExecutor == null ) {
+            this.rotationExecutor = Executors.newSingleThreadScheduledExecutor( runnable -> {
+                Thread thread = new Thread( runnable, "Proxy Key Rotation" );
+                thread.setDaemon( true );
+                return thread;
+            } );
+        }
+
+        this.rotationExecutor.scheduleAtFixedRate( () -> {
+            try {
+                this.rotate();
+            } catch ( GeneralSecurityException e ) {
+                LOGGER.error( "Could not rotate proxy key pair", e );
+            }
+        }, period, period, unit );
+    }
+
+    /**
+     * Stop rotating the key pair. A rotation which is currently running is allowed to finish writing its keys.
+     */
+    public void close() {
+        ScheduledExecutorService executor;
+        synchronized ( this ) {
+            executor = this.rotationExecutor;
+            this.rotationExecutor = null;
+        }
+
+        if ( executor != null ) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination( 5, TimeUnit.SECONDS );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private KeyPair read() throws IOException, GeneralSecurityException {
+        List<String> lines = Files.readAllLines( this.keyFile.toPath(), StandardCharsets.US_ASCII );
+        if ( lines.size() < 2 ) {
+            throw new IOException( this.keyFile + " does not contain a key pair" );
+        }
+
+        KeyFactory keyFactory = KeyFactory.getInstance( "EC", "BC" );
+        PublicKey publicKey = keyFactory.generatePublic( new X509EncodedKeySpec( Base64.getDecoder().decode( lines.get( 0 ).trim() ) ) );
+        PrivateKey privateKey = keyFactory.generatePrivate( new PKCS8EncodedKeySpec( Base64.getDecoder().decode( lines.get( 1 ).trim() ) ) );
+        return new KeyPair( publicKey, privateKey );
+    }
+
+    private void write( KeyPair keyPair ) throws IOException {
+        Base64.Encoder encoder = Base64.getEncoder();
+        String publicKey = encoder.encodeToString( keyPair.getPublic().getEncoded() );
+        String content = publicKey + "\n" + encoder.encodeToString( keyPair.getPrivate().getEncoded() ) + "\n";
+
+        // The pair is only ever replaced as a whole, the export follows once it is safe
+        writeAtomically( this.keyFile, content, true );
+        writeAtomically( this.publicKeyFile, publicKey, false );
+    }
+
+    private static boolean isMatchingPair( KeyPair keyPair ) throws GeneralSecurityException {
+        byte[] challenge = new byte[32];
+        new SecureRandom().nextBytes( challenge );
+
+        Signature signer = Signature.getInstance( SIGNATURE_ALGORITHM, "BC" );
+        signer.initSign( keyPair.getPrivate() );
+        signer.update( challenge );
+        byte[] signature = signer.sign();
+
+        Signature verifier = Signature.getInstance( SIGNATURE_ALGORITHM, "BC" );
+        verifier.initVerify( keyPair.getPublic() );
+        verifier.update( challenge );
+        return verifier.verify( signature );
+    }
+
+    private static KeyPair generate() throws NoSuchProviderException, NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance( "EC", "BC" );
+        generator.initialize( 384 );
+        return generator.generateKeyPair();
+    }
+
+    private static void writeAtomically( File file, String content, boolean secret ) throws IOException {
+        // Write next to the target and move it over, so a crash never leaves half a file behind
+        Path target = file.getAbsoluteFile().toPath();
+        Path temp = Files.createTempFile( target.getParent(), file.getName(), ".tmp" );
+        try {
+            try {
+                Files.setPosixFilePermissions( temp, PosixFilePermissions.fromString( secret ? "rw-------" : "rw-r--r--" ) );
+            } catch ( UnsupportedOperationException ignored ) {
+                // Not a POSIX file system
+            }
+
+            Files.write( temp, content.getBytes( StandardCharsets.US_ASCII ) );
+            Files.move( temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        } finally {
+            Files.deleteIfExists( temp );
+        }
+    }
+
+}
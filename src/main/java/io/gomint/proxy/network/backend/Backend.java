@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.backend;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A backend server players can be routed to. It counts the players currently routed to it and tracks its health:
+ * after {@link #FAILURE_THRESHOLD} failed connection attempts in a row it is skipped for {@link #RETRY_AFTER_NANOS},
+ * afterwards logins may try it again.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+@Getter
+public class Backend {
+
+    static final int FAILURE_THRESHOLD = 3;
+    static final long RETRY_AFTER_NANOS = TimeUnit.SECONDS.toNanos( 30 );
+
+    private final InetSocketAddress address;
+    private final int weight;
+    private final int maxConnections;
+
+    @Getter( AccessLevel.NONE )
+    private final AtomicInteger connections = new AtomicInteger();
+    @Getter( AccessLevel.NONE )
+    private final AtomicInteger failures = new AtomicInteger();
+    @Getter( AccessLevel.NONE )
+    private volatile long unhealthySince;
+
+    /**
+     * Create a new backend
+     *
+     * @param address        of the backend server
+     * @param weight         relative share of players this backend should get, at least 1
+     * @param maxConnections amount of players after which the backend is skipped, 0 for no limit
+     */
+    public Backend( InetSocketAddress address, int weight, int maxConnections ) {
+        this.address = address;
+        this.weight = Math.max( 1, weight );
+        this.maxConnections = maxConnections;
+    }
+
+    public int getConnections() {
+        return this.connections.get();
+    }
+
+    /**
+     * Check if the backend did not fail too often recently
+     *
+     * @return true when players may be routed to this backend
+     */
+    public boolean isHealthy() {
+        return this.failures.get() < FAILURE_THRESHOLD || System.nanoTime() - this.unhealthySince >= RETRY_AFTER_NANOS;
+    }
+
+    /**
+     * Check if the backend is healthy and below its connection cap
+     *
+     * @return true when a player may be routed to this backend
+     */
+    public boolean isAvailable() {
+        return this.isHealthy() && ( this.maxConnections <= 0 || this.connections.get() < this.maxConnections );
+    }
+
+    /**
+     * Count a player routed to this backend, respecting the connection cap
+     *
+     * @return true when the player has been counted, false when the backend is full
+     */
+    boolean tryAcquire() {
+        while ( true ) {
+            int current = this.connections.get();
+            if ( this.maxConnections > 0 && current >= this.maxConnections ) {
+                return false;
+            }
+
+            if ( this.connections.compareAndSet( current, current + 1 ) ) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Count a player which left this backend
+     */
+    public void release() {
+        this.connections.decrementAndGet();
+    }
+
+    /**
+     * Record a successful connection attempt, this makes the backend healthy again
+     */
+    public void markSuccess() {
+        this.failures.set( 0 );
+    }
+
+    /**
+     * Record a failed connection attempt
+     */
+    public void markFailure() {
+        if ( this.failures.incrementAndGet() >= FAILURE_THRESHOLD ) {
+            // Also restarts the retry delay when a retry failed
+            this.unhealthySince = System.nanoTime();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Backend{address=" + this.address + ", weight=" + this.weight + ", connections=" + this.connections.get() +
+            ", healthy=" + this.isHealthy() + "}";
+    }
+
+}
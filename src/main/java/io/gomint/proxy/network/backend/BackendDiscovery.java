@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.backend;
+
+import io.gomint.jraknet.ClientSocket;
+import io.gomint.jraknet.Socket;
+import io.gomint.jraknet.SocketEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the game address each backend advertises in its unconnected pong, so joining players can connect right
+ * away instead of pinging the backend first. Addresses expire after {@link #TTL_NANOS} and are refreshed in the
+ * background through a single shared ping socket well before that.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+public class BackendDiscovery {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( BackendDiscovery.class );
+    private static final long REFRESH_SECONDS = 15;
+    private static final long TTL_NANOS = TimeUnit.SECONDS.toNanos( 60 );
+
+    private final BackendPool pool;
+    private final Map<InetSocketAddress, Discovered> discovered = new ConcurrentHashMap<>();
+
+    private ClientSocket pingSocket;
+    private ScheduledExecutorService refreshExecutor;
+
+    /**
+     * Create a new discovery for the backends of the given pool
+     *
+     * @param pool whose backends should be discovered
+     */
+    public BackendDiscovery( BackendPool pool ) {
+        this.pool = pool;
+    }
+
+    /**
+     * Start pinging all backends in the background. Without it addresses are only learned from the pings of joining
+     * players.
+     *
+     * @throws SocketException when the ping socket could not be opened
+     */
+    public synchronized void start() throws SocketException {
+        this.pingSocket = new ClientSocket();
+        this.pingSocket.setMojangModificationEnabled( true );
+        this.pingSocket.initialize();
+        this.pingSocket.setEventHandler( this::onSocketEvent );
+
+        this.refreshExecutor = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "Backend Discovery" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+
+        this.refreshExecutor.scheduleWithFixedDelay( () -> {
+            for ( Backend backend : this.pool.getBackends() ) {
+                this.pingSocket.ping( backend.getAddress() );
+            }
+        }, 0, REFRESH_SECONDS, TimeUnit.SECONDS );
+    }
+
+    /**
+     * Get the game address of the given backend if it has been discovered recently
+     *
+     * @param backend which should be connected to
+     * @return address to connect to or null when the backend has to be pinged first
+     */
+    public InetSocketAddress getGameAddress( Backend backend ) {
+        Discovered entry = this.discovered.get( backend.getAddress() );
+        if ( entry == null || System.nanoTime() - entry.discoveredAt >= TTL_NANOS ) {
+            return null;
+        }
+
+        return entry.gameAddress;
+    }
+
+    /**
+     * Learn the game address of a backend from one of its pongs
+     *
+     * @param pingAddress address the pong came from
+     * @param motd        of the pong
+     * @return the game address or null when the pong did not contain a valid port
+     */
+    public InetSocketAddress update( SocketAddress pingAddress, String motd ) {
+        int port = parseGamePort( motd );
+        if ( port == -1 || !( pingAddress instanceof InetSocketAddress ) ) {
+            return null;
+        }
+
+        // Keep the IP, resolving its host name again would only cost a reverse lookup
+        InetSocketAddress address = (InetSocketAddress) pingAddress;
+        InetSocketAddress gameAddress = new InetSocketAddress( address.getAddress(), port );
+        this.discovered.put( address, new Discovered( gameAddress, System.nanoTime() ) );
+        return gameAddress;
+    }
+
+    public synchronized void close() {
+        if ( this.refreshExecutor != null ) {
+            this.refreshExecutor.shutdownNow();
+            this.refreshExecutor = null;
+        }
+
+        if ( this.pingSocket != null ) {
+            this.pingSocket.close();
+            this.pingSocket = null;
+        }
+    }
+
+    private void onSocketEvent( Socket socket, SocketEvent socketEvent ) {
+        switch ( socketEvent.getType() ) {
+            case UNCONNECTED_PONG:
+                SocketAddress address = socketEvent.getPingPongInfo().getAddress();
+                String motd = socketEvent.getPingPongInfo().getMotd();
+                if ( this.update( address, motd ) == null ) {
+                    LOGGER.warn( "Backend " + address + " sent a pong without game port: " + motd );
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Get the IPv4 game port out of a MOTD, it is the second to last field
+     * ({@code MCPE;motd;protocol;version;players;max;id;sub motd;gamemode;1;port v4;port v6;})
+     *
+     * @param motd which should be parsed
+     * @return the port or -1 when there is no valid port
+     */
+    static int parseGamePort( String motd ) {
+        // Trailing separators don't count as fields
+        int end = motd.length();
+        while ( end > 0 && motd.charAt( end - 1 ) == ';' ) {
+            end--;
+        }
+
+        int lastField = motd.lastIndexOf( ';', end - 1 );
+        if ( lastField <= 0 ) {
+            return -1;
+        }
+
+        int portField = motd.lastIndexOf( ';', lastField - 1 );
+        try {
+            int port = Integer.parseInt( motd.substring( portField + 1, lastField ) );
+            return port > 0 && port <= 65535 ? port : -1;
+        } catch ( NumberFormatException e ) {
+            return -1;
+        }
+    }
+
+    private static final class Discovered {
+
+        private final InetSocketAddress gameAddress;
+        private final long discoveredAt;
+
+        private Discovered( InetSocketAddress gameAddress, long discoveredAt ) {
+            this.gameAddress = gameAddress;
+            this.discoveredAt = discoveredAt;
+        }
+
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The backend servers of the proxy together with the strategy which spreads players over them. Players acquire a
+ * backend when they get routed and have to release it once they leave it.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+public class BackendPool {
+
+    private final List<Backend> backends;
+    private final BackendSelector selector;
+
+    /**
+     * Create a new pool
+     *
+     * @param backends which players may be routed to
+     * @param strategy which decides where a player is routed to
+     */
+    public BackendPool( List<Backend> backends, BalancingStrategy strategy ) {
+        this.backends = Collections.unmodifiableList( new ArrayList<>( backends ) );
+        this.selector = strategy.createSelector( this.backends );
+    }
+
+    public List<Backend> getBackends() {
+        return this.backends;
+    }
+
+    /**
+     * Select a backend for the given player and count the player on it. The caller has to {@link Backend#release()}
+     * the backend when the player leaves it.
+     *
+     * @param uuid of the player, may be null
+     * @return the backend the player has been counted on or null when all backends are full or unhealthy
+     */
+    public Backend acquire( UUID uuid ) {
+        // Another login may take the last free slot between selecting and counting, select again in that case
+        for ( int attempt = 0; attempt < this.backends.size(); attempt++ ) {
+            Backend backend = this.selector.select( uuid, Backend::isAvailable );
+            if ( backend == null ) {
+                return null;
+            }
+
+            if ( backend.tryAcquire() ) {
+                return backend;
+            }
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.backend;
+
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Picks the backend a player is routed to. Selectors are created for a fixed list of backends and must be thread
+ * safe, logins are routed from multiple threads.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+public interface BackendSelector {
+
+    /**
+     * Select a backend for the given player
+     *
+     * @param uuid      of the player, may be null when the login did not provide one
+     * @param available filter which backends may currently be picked
+     * @return selected backend or null when no backend is available
+     */
+    Backend select( UUID uuid, Predicate<Backend> available );
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.backend;
+
+import io.gomint.jraknet.ClientSocket;
+
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out the client sockets used to talk to backend servers and keeps track of them, so sockets of connections
+ * which went away without cleaning up are still closed on shutdown.
+ * <p>
+ * Every proxied player needs a socket of its own: a jraknet client socket owns its UDP socket and receive thread and
+ * carries exactly one connection, which it creates when connecting and drops when disconnecting. Incoming datagrams
+ * are not demultiplexed by the remote address, so connections can't share a socket without changes to jraknet.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+public class BackendSocketProvider {
+
+    private final Set<ClientSocket> openSockets = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Open and initialize a new socket
+     *
+     * @return the initialized socket
+     * @throws SocketException when the socket could not be opened
+     */
+    public ClientSocket open() throws SocketException {
+        ClientSocket socket = new ClientSocket();
+        socket.setMojangModificationEnabled( true );
+        socket.initialize();
+
+        this.openSockets.add( socket );
+        return socket;
+    }
+
+    /**
+     * Close a socket opened by this provider. Closing a socket twice is fine.
+     *
+     * @param socket which should be closed
+     */
+    public void close( ClientSocket socket ) {
+        if ( this.openSockets.remove( socket ) ) {
+            socket.close();
+        }
+    }
+
+    public int getOpenSockets() {
+        return this.openSockets.size();
+    }
+
+    /**
+     * Close all sockets which are still open
+     */
+    public void closeAll() {
+        for ( ClientSocket socket : this.openSockets ) {
+            this.close( socket );
+        }
+    }
+
+}
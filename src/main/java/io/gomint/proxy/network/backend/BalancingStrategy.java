@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.backend;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Available ways to spread players over the backend servers.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+public enum BalancingStrategy {
+
+    /**
+     * Route to the backend with the least players relative to its weight
+     */
+    LEAST_CONNECTIONS( LeastConnectionsSelector::new ),
+
+    /**
+     * Route to the backends in turn according to their weight
+     */
+    WEIGHTED_ROUND_ROBIN( WeightedRoundRobinSelector::new ),
+
+    /**
+     * Route each player to the same backend based on its UUID
+     */
+    CONSISTENT_HASH( ConsistentHashSelector::new );
+
+    private final Function<List<Backend>, BackendSelector> factory;
+
+    BalancingStrategy( Function<List<Backend>, BackendSelector> factory ) {
+        this.factory = factory;
+    }
+
+    /**
+     * Create a selector for the given backends
+     *
+     * @param backends which may be selected
+     * @return new selector
+     */
+    public BackendSelector createSelector( List<Backend> backends ) {
+        return this.factory.apply( backends );
+    }
+
+    /**
+     * Parse a strategy from its command line name, e.g. {@code least-connections}
+     *
+     * @param name of the strategy
+     * @return parsed strategy
+     * @throws IllegalArgumentException when there is no strategy with the given name
+     */
+    public static BalancingStrategy parse( String name ) {
+        return valueOf( name.trim().toUpperCase().replace( '-', '_' ) );
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.backend;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Routes a player to the same backend every time by placing backends on a hash ring and picking the first available
+ * one after the hash of the player's UUID. Each backend gets {@link #POINTS_PER_WEIGHT} points per weight on the ring,
+ * so adding or removing a backend only moves the players of its share.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+class ConsistentHashSelector implements BackendSelector {
+
+    private static final int POINTS_PER_WEIGHT = 64;
+
+    private final TreeMap<Long, Backend> ring = new TreeMap<>();
+
+    ConsistentHashSelector( List<Backend> backends ) {
+        for ( Backend backend : backends ) {
+            String key = backend.getAddress().getHostString() + ":" + backend.getAddress().getPort();
+            for ( int i = 0; i < backend.getWeight() * POINTS_PER_WEIGHT; i++ ) {
+                this.ring.put( mix( ( (long) key.hashCode() << 32 ) | i ), backend );
+            }
+        }
+    }
+
+    @Override
+    public Backend select( UUID uuid, Predicate<Backend> available ) {
+        if ( this.ring.isEmpty() ) {
+            return null;
+        }
+
+        // Players without identity are spread randomly
+        long hash = uuid != null ? mix( uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits() ) : ThreadLocalRandom.current().nextLong();
+
+        // Walk the ring clockwise until an available backend shows up
+        for ( Backend backend : this.ring.tailMap( hash ).values() ) {
+            if ( available.test( backend ) ) {
+                return backend;
+            }
+        }
+
+        for ( Map.Entry<Long, Backend> entry : this.ring.headMap( hash ).entrySet() ) {
+            if ( available.test( entry.getValue() ) ) {
+                return entry.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    private static long mix( long value ) {
+        // Finalizer of MurmurHash3, spreads similar inputs over the whole ring
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+}
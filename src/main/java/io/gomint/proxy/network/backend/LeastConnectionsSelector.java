@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.backend;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Picks the backend with the least players relative to its weight.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+class LeastConnectionsSelector implements BackendSelector {
+
+    private final List<Backend> backends;
+
+    LeastConnectionsSelector( List<Backend> backends ) {
+        this.backends = backends;
+    }
+
+    @Override
+    public Backend select( UUID uuid, Predicate<Backend> available ) {
+        Backend best = null;
+        long bestConnections = 0;
+        int bestWeight = 1;
+
+        for ( Backend backend : this.backends ) {
+            if ( !available.test( backend ) ) {
+                continue;
+            }
+
+            // Compare connections / weight without dividing
+            long connections = backend.getConnections();
+            if ( best == null || connections * bestWeight < bestConnections * backend.getWeight() ) {
+                best = backend;
+                bestConnections = connections;
+                bestWeight = backend.getWeight();
+            }
+        }
+
+        return best;
+    }
+
+}
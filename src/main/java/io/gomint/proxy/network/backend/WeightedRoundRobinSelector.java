@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.backend;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Hands out backends in turn, each one as often as its weight says. Uses the smooth variant, so backends with a high
+ * weight don't get their players in bursts.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+class WeightedRoundRobinSelector implements BackendSelector {
+
+    private final List<Backend> backends;
+    private final int[] currentWeights;
+
+    WeightedRoundRobinSelector( List<Backend> backends ) {
+        this.backends = backends;
+        this.currentWeights = new int[backends.size()];
+    }
+
+    @Override
+    public synchronized Backend select( UUID uuid, Predicate<Backend> available ) {
+        int best = -1;
+        int totalWeight = 0;
+
+        for ( int i = 0; i < this.backends.size(); i++ ) {
+            Backend backend = this.backends.get( i );
+            if ( !available.test( backend ) ) {
+                continue;
+            }
+
+            this.currentWeights[i] += backend.getWeight();
+            totalWeight += backend.getWeight();
+
+            if ( best == -1 || this.currentWeights[i] > this.currentWeights[best] ) {
+                best = i;
+            }
+        }
+
+        if ( best == -1 ) {
+            return null;
+        }
+
+        this.currentWeights[best] -= totalWeight;
+        return this.backends.get( best );
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.compression;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * Compresses and decompresses the content of batch packets. Engines keep native state (deflater / inflater) and are
+ * not thread safe, every direction of a connection gets its own instance.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+public interface CompressionEngine {
+
+    /**
+     * Compress the readable bytes of the given buffer. The input is not released.
+     *
+     * @param in buffer containing the uncompressed batch content
+     * @return new buffer containing the compressed data, owned by the caller
+     */
+    ByteBuf compress( ByteBuf in );
+
+    /**
+     * Decompress the readable bytes of the given buffer. The input is not released.
+     *
+     * @param in buffer containing the compressed batch content
+     * @return new buffer containing the decompressed data, owned by the caller
+     * @throws DataFormatException when the input is not valid compressed data or inflates beyond the allowed size
+     */
+    ByteBuf decompress( ByteBuf in ) throws DataFormatException;
+
+    /**
+     * Free all resources held by this engine
+     */
+    void close();
+
+}
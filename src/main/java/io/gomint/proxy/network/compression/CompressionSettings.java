@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.compression;
+
+import lombok.Data;
+
+import java.util.zip.Deflater;
+
+/**
+ * Compression settings of one direction (client or backend link) of the proxy. Changes only affect connections
+ * created afterwards.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+@Data
+public class CompressionSettings {
+
+    /**
+     * Engine used to compress and decompress batches
+     */
+    private volatile CompressionType type = CompressionType.NATIVE;
+
+    /**
+     * Deflate level (0 - 9), only used by {@link CompressionType#ZLIB}
+     */
+    private volatile int level = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Batches with less uncompressed bytes than this are sent as stored deflate blocks, only used by
+     * {@link CompressionType#ZLIB}
+     */
+    private volatile int skipThreshold = 256;
+
+    /**
+     * Whether or not the stream is raw deflate without zlib header and checksum, only used by
+     * {@link CompressionType#ZLIB}. Newer protocol versions dropped the zlib wrapper.
+     */
+    private volatile boolean raw = true;
+
+    /**
+     * Parse settings from the command line format {@code native} or {@code zlib[:level[:skipThreshold]]}
+     *
+     * @param value which should be parsed
+     * @return parsed settings
+     * @throws IllegalArgumentException when the value is malformed
+     */
+    public static CompressionSettings parse( String value ) {
+        String[] split = value.split( ":" );
+        CompressionSettings settings = new CompressionSettings();
+
+        try {
+            settings.setType( CompressionType.valueOf( split[0].toUpperCase() ) );
+            if ( split.length > 1 ) {
+                settings.setLevel( Integer.parseInt( split[1] ) );
+                if ( settings.getLevel() < Deflater.DEFAULT_COMPRESSION || settings.getLevel() > Deflater.BEST_COMPRESSION ) {
+                    throw new IllegalArgumentException( "Compression level must be between -1 and 9" );
+                }
+            }
+
+            if ( split.length > 2 ) {
+                settings.setSkipThreshold( Integer.parseInt( split[2] ) );
+            }
+        } catch ( NumberFormatException e ) {
+            throw new IllegalArgumentException( "Malformed number in compression settings: " + value, e );
+        }
+
+        return settings;
+    }
+
+    /**
+     * Create a new compression engine for these settings
+     *
+     * @return new engine instance
+     */
+    public CompressionEngine createEngine() {
+        return new ZlibCompressionEngine( this.level, this.skipThreshold, this.raw );
+    }
+
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.compression;
+
+/**
+ * @author geNAZt
+ * @version 1.0
+ */
+public enum CompressionType {
+
+    /**
+     * Native compression and encryption of the gomint crypto library. Fastest, but compression level and skip
+     * threshold can not be tuned.
+     */
+    NATIVE,
+
+    /**
+     * {@link java.util.zip} based compression with configurable level and skip threshold, encryption is done by
+     * the JCE.
+     */
+    ZLIB
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link java.util.zip} based compression engine. Batches below the skip threshold are written as stored deflate
+ * blocks: every inflater accepts them and we don't spend CPU on data which would barely shrink.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+public class ZlibCompressionEngine implements CompressionEngine {
+
+    private static final int MAX_INFLATED_SIZE = 16 * 1024 * 1024;
+
+    private final int level;
+    private final int skipThreshold;
+    private final Deflater deflater;
+    private final Inflater inflater;
+
+    /**
+     * Create a new zlib engine
+     *
+     * @param level         deflate level used for batches above the skip threshold
+     * @param skipThreshold minimum amount of uncompressed bytes before compression kicks in
+     * @param raw           true for raw deflate streams, false for zlib wrapped ones
+     */
+    public ZlibCompressionEngine( int level, int skipThreshold, boolean raw ) {
+        this.level = level;
+        this.skipThreshold = skipThreshold;
+        this.deflater = new Deflater( level, raw );
+        this.inflater = new Inflater( raw );
+    }
+
+    @Override
+    public ByteBuf compress( ByteBuf in ) {
+        int length = in.readableBytes();
+
+        this.deflater.reset();
+        this.deflater.setLevel( length < this.skipThreshold ? Deflater.NO_COMPRESSION : this.level );
+        this.deflater.setInput( in.nioBuffer( in.readerIndex(), length ) );
+        this.deflater.finish();
+
+        // Stored blocks add 5 bytes per 64 KiB, plus wrapper
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.directBuffer( length + ( length >> 12 ) + 64 );
+        try {
+            while ( !this.deflater.finished() ) {
+                if ( !out.isWritable() ) {
+                    out.ensureWritable( Math.max( 1024, out.capacity() >> 1 ) );
+                }
+
+                ByteBuffer target = out.nioBuffer( out.writerIndex(), out.writableBytes() );
+                int written = this.deflater.deflate( target );
+                out.writerIndex( out.writerIndex() + written );
+            }
+
+            return out;
+        } catch ( RuntimeException e ) {
+            out.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public ByteBuf decompress( ByteBuf in ) throws DataFormatException {
+        this.inflater.reset();
+        this.inflater.setInput( in.nioBuffer( in.readerIndex(), in.readableBytes() ) );
+
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.directBuffer( Math.min( MAX_INFLATED_SIZE, in.readableBytes() * 4 + 64 ) );
+        try {
+            while ( !this.inflater.finished() ) {
+                if ( !out.isWritable() ) {
+                    if ( out.capacity() >= MAX_INFLATED_SIZE ) {
+                        throw new DataFormatException( "Batch inflates beyond " + MAX_INFLATED_SIZE + " bytes" );
+                    }
+
+                    out.ensureWritable( Math.min( MAX_INFLATED_SIZE - out.capacity(), out.capacity() ) );
+                }
+
+                ByteBuffer target = out.nioBuffer( out.writerIndex(), out.writableBytes() );
+                int read = this.inflater.inflate( target );
+                out.writerIndex( out.writerIndex() + read );
+
+                if ( read == 0 && ( this.inflater.needsInput() || this.inflater.needsDictionary() ) ) {
+                    throw new DataFormatException( "Truncated batch" );
+                }
+            }
+
+            return out;
+        } catch ( DataFormatException | RuntimeException e ) {
+            out.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        this.deflater.end();
+        this.inflater.end();
+    }
+
+}
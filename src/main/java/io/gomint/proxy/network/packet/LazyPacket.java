@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.packet;
+
+import io.gomint.jraknet.PacketBuffer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.util.Arrays;
+
+/**
+ * Packet which keeps the raw bytes it has been received with and only decodes its fields once a handler reads one
+ * of them. As long as nothing has been modified the packet is written back out from the original bytes, so packets
+ * nobody looks at cost a slice instead of a full parse and re-serialization.
+ * <p>
+ * Simple rewrites don't need a full re-encode either: subclasses record the offsets of their fields in a cheap scan
+ * (or while decoding) and patch new values straight into the raw bytes. Values with the same encoded length are overwritten in place,
+ * values with a different length are spliced in and the offsets of all following fields are moved. The raw bytes
+ * are copied before the first patch (copy-on-write), they may be shared with the buffer the packet came in.
+ * <p>
+ * The raw bytes are a retained slice of the batch the packet came in, {@link #release()} has to be called once the
+ * packet has been written or dropped.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+public abstract class LazyPacket extends Packet {
+
+    private ByteBuf raw;
+    private boolean ownsRaw;
+    private boolean decoded;
+    private boolean scanned;
+    private boolean modified;
+    private int[] fieldOffsets;
+
+    /**
+     * Constructor for lazy packets
+     *
+     * @param id The id which the Packet should use
+     */
+    protected LazyPacket( int id ) {
+        super( id );
+    }
+
+    /**
+     * Decode all fields of this packet from the raw bytes.
+     *
+     * @param buffer The buffer containing the raw packet body
+     */
+    protected abstract void decode( PacketBuffer buffer );
+
+    /**
+     * Encode all fields of this packet. Called once the packet has been modified or when it has no raw bytes, it has
+     * to write everything {@link #decode(PacketBuffer)} reads.
+     *
+     * @param buffer The buffer to write the packet body into
+     */
+    protected abstract void encode( PacketBuffer buffer );
+
+    /**
+     * Record the offsets of the fields which can be patched. Called before the first patch of a packet which has not
+     * been decoded yet. The default implementation decodes the packet, subclasses whose patchable fields can be found
+     * without a full parse should only skip to them.
+     *
+     * @param buffer The buffer containing the raw packet body
+     */
+    protected void scan( PacketBuffer buffer ) {
+        this.ensureDecoded();
+    }
+
+    /**
+     * Decode the fields of this packet if that did not happen yet. Getters of subclasses call this before accessing
+     * any field.
+     */
+    protected final void ensureDecoded() {
+        if ( !this.decoded ) {
+            this.decoded = true;
+            if ( this.raw != null ) {
+                this.decode( new PacketBuffer( this.raw.slice() ) );
+            }
+        }
+    }
+
+    /**
+     * Mark this packet as modified so it is encoded from its fields instead of the raw bytes. Setters of subclasses
+     * call this after changing a field.
+     */
+    protected final void markModified() {
+        this.ensureDecoded();
+        this.modified = true;
+    }
+
+    /**
+     * Record the offset of a field while decoding so it can be patched later on.
+     *
+     * @param field  index of the field, chosen by the subclass
+     * @param buffer the buffer passed to {@link #scan(PacketBuffer)} or {@link #decode(PacketBuffer)}, positioned at
+     *               the start of the field
+     */
+    protected final void recordOffset( int field, PacketBuffer buffer ) {
+        if ( this.fieldOffsets == null ) {
+            this.fieldOffsets = new int[Math.max( 4, field + 1 )];
+            Arrays.fill( this.fieldOffsets, -1 );
+        } else if ( field >= this.fieldOffsets.length ) {
+            int oldLength = this.fieldOffsets.length;
+            this.fieldOffsets = Arrays.copyOf( this.fieldOffsets, field + 1 );
+            Arrays.fill( this.fieldOffsets, oldLength, field + 1, -1 );
+        }
+
+        this.fieldOffsets[field] = buffer.getBuffer().readerIndex();
+    }
+
+    /**
+     * Patch a big endian int field
+     *
+     * @param field index of the field given to {@link #recordOffset(int, PacketBuffer)}
+     * @param value new value of the field
+     * @return true when the field has been patched, false when the field has to be encoded instead
+     */
+    protected final boolean patchInt( int field, int value ) {
+        int index = this.writableFieldIndex( field );
+        if ( index < 0 ) {
+            return false;
+        }
+
+        this.raw.setInt( index, value );
+        return true;
+    }
+
+    /**
+     * Patch a little endian int field
+     *
+     * @param field index of the field given to {@link #recordOffset(int, PacketBuffer)}
+     * @param value new value of the field
+     * @return true when the field has been patched, false when the field has to be encoded instead
+     */
+    protected final boolean patchLInt( int field, int value ) {
+        int index = this.writableFieldIndex( field );
+        if ( index < 0 ) {
+            return false;
+        }
+
+        this.raw.setIntLE( index, value );
+        return true;
+    }
+
+    /**
+     * Patch a little endian long field
+     *
+     * @param field index of the field given to {@link #recordOffset(int, PacketBuffer)}
+     * @param value new value of the field
+     * @return true when the field has been patched, false when the field has to be encoded instead
+     */
+    protected final boolean patchLLong( int field, long value ) {
+        int index = this.writableFieldIndex( field );
+        if ( index < 0 ) {
+            return false;
+        }
+
+        this.raw.setLongLE( index, value );
+        return true;
+    }
+
+    /**
+     * Patch a signed (zigzag) var int field
+     *
+     * @param field index of the field given to {@link #recordOffset(int, PacketBuffer)}
+     * @param value new value of the field
+     * @return true when the field has been patched, false when the field has to be encoded instead
+     */
+    protected final boolean patchSignedVarInt( int field, int value ) {
+        return this.patchVarLong( field, ( (long) value << 1 ^ value >> 31 ) & 0xFFFFFFFFL );
+    }
+
+    /**
+     * Patch a unsigned var int field
+     *
+     * @param field index of the field given to {@link #recordOffset(int, PacketBuffer)}
+     * @param value new value of the field
+     * @return true when the field has been patched, false when the field has to be encoded instead
+     */
+    protected final boolean patchUnsignedVarInt( int field, int value ) {
+        return this.patchVarLong( field, value & 0xFFFFFFFFL );
+    }
+
+    /**
+     * Patch a signed (zigzag) var long field
+     *
+     * @param field index of the field given to {@link #recordOffset(int, PacketBuffer)}
+     * @param value new value of the field
+     * @return true when the field has been patched, false when the field has to be encoded instead
+     */
+    protected final boolean patchSignedVarLong( int field, long value ) {
+        return this.patchVarLong( field, value << 1 ^ value >> 63 );
+    }
+
+    /**
+     * Patch a unsigned var long field
+     *
+     * @param field index of the field given to {@link #recordOffset(int, PacketBuffer)}
+     * @param value new value of the field
+     * @return true when the field has been patched, false when the field has to be encoded instead
+     */
+    protected final boolean patchUnsignedVarLong( int field, long value ) {
+        return this.patchVarLong( field, value );
+    }
+
+    private boolean patchVarLong( int field, long value ) {
+        int index = this.writableFieldIndex( field );
+        if ( index < 0 ) {
+            return false;
+        }
+
+        int oldLength = 1;
+        while ( ( this.raw.getByte( index + oldLength - 1 ) & 0x80 ) != 0 ) {
+            oldLength++;
+        }
+
+        int newLength = varLongSize( value );
+        if ( newLength != oldLength ) {
+            this.splice( index, oldLength, newLength );
+            index = this.raw.readerIndex() + this.fieldOffsets[field];
+        }
+
+        while ( ( value & ~0x7FL ) != 0 ) {
+            this.raw.setByte( index++, (int) ( value & 0x7F ) | 0x80 );
+            value >>>= 7;
+        }
+
+        this.raw.setByte( index, (int) value );
+        return true;
+    }
+
+    /**
+     * Get the absolute index of a field in writable raw bytes, copying them first if needed
+     *
+     * @param field index of the field
+     * @return index into {@link #raw} or -1 when the field can't be patched
+     */
+    private int writableFieldIndex( int field ) {
+        if ( this.raw == null || this.modified ) {
+            return -1;
+        }
+
+        if ( !this.scanned ) {
+            this.scanned = true;
+            if ( !this.decoded ) {
+                this.scan( new PacketBuffer( this.raw.slice() ) );
+            }
+        }
+
+        if ( this.fieldOffsets == null || field >= this.fieldOffsets.length || this.fieldOffsets[field] < 0 ) {
+            return -1;
+        }
+
+        if ( !this.ownsRaw ) {
+            // The raw bytes may be shared with whoever handed us the packet
+            ByteBuf copy = PooledByteBufAllocator.DEFAULT.buffer( this.raw.readableBytes() );
+            copy.writeBytes( this.raw, this.raw.readerIndex(), this.raw.readableBytes() );
+            this.raw.release();
+            this.raw = copy;
+            this.ownsRaw = true;
+        }
+
+        return this.raw.readerIndex() + this.fieldOffsets[field];
+    }
+
+    /**
+     * Resize the region of a field inside the raw bytes and move the offsets of all following fields
+     *
+     * @param index     absolute index of the field
+     * @param oldLength current length of the field
+     * @param newLength new length of the field, the content of the new region is undefined
+     */
+    private void splice( int index, int oldLength, int newLength ) {
+        int start = this.raw.readerIndex();
+        int tail = this.raw.writerIndex() - ( index + oldLength );
+
+        ByteBuf rebuilt = PooledByteBufAllocator.DEFAULT.buffer( this.raw.readableBytes() - oldLength + newLength );
+        rebuilt.writeBytes( this.raw, start, index - start );
+        rebuilt.writeZero( newLength );
+        rebuilt.writeBytes( this.raw, index + oldLength, tail );
+
+        this.raw.release();
+        this.raw = rebuilt;
+
+        int offset = index - start;
+        int delta = newLength - oldLength;
+        for ( int i = 0; i < this.fieldOffsets.length; i++ ) {
+            if ( this.fieldOffsets[i] > offset ) {
+                this.fieldOffsets[i] += delta;
+            }
+        }
+    }
+
+    private static int varLongSize( long value ) {
+        int size = 1;
+        while ( ( value & ~0x7FL ) != 0 ) {
+            size++;
+            value >>>= 7;
+        }
+
+        return size;
+    }
+
+    /**
+     * Check if the packet has to be encoded from its fields
+     *
+     * @return true when a field has been changed
+     */
+    public boolean isModified() {
+        return this.modified;
+    }
+
+    /**
+     * Release the raw bytes of this packet. Fields which have not been decoded yet can not be read afterwards.
+     */
+    public void release() {
+        if ( this.raw != null ) {
+            this.raw.release();
+            this.raw = null;
+        }
+    }
+
+    @Override
+    public int estimateLength() {
+        return this.raw != null && !this.modified ? this.raw.readableBytes() : -1;
+    }
+
+    @Override
+    public void serialize( PacketBuffer buffer ) {
+        if ( this.raw != null && !this.modified ) {
+            buffer.writeBytes( this.raw.slice() );
+            return;
+        }
+
+        this.ensureDecoded();
+        this.encode( buffer );
+    }
+
+    @Override
+    public void deserialize( PacketBuffer buffer ) {
+        ByteBuf in = buffer.getBuffer();
+        this.raw = in.retainedSlice( in.readerIndex(), in.readableBytes() );
+        in.skipBytes( in.readableBytes() );
+    }
+
+}
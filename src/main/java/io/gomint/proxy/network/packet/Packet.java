@@ -76,15 +76,6 @@ public abstract class Packet {
         return -1;
     }
 
-    /**
-     * Returns the ordering channel to send the packet on.
-     *
-     * @return The ordering channel of the packet
-     */
-    public int orderingChannel() {
-        return 0;
-    }
-
     public void writeGamerules(Map<Gamerule, Object> gamerules, PacketBuffer buffer) {
         if (gamerules == null) {
             buffer.writeUnsignedVarInt(0);
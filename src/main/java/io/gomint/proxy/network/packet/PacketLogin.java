@@ -2,14 +2,14 @@ package io.gomint.proxy.network.packet;
 
 import io.gomint.jraknet.PacketBuffer;
 import io.gomint.proxy.network.PacketRegistry;
-import lombok.Data;
 
 /**
  * @author BlackyPaw
  * @version 1.0
  */
-@Data
-public class PacketLogin extends Packet {
+public class PacketLogin extends LazyPacket {
+
+	private static final int FIELD_PROTOCOL = 0;
 
 	private int protocol;
 	private byte[] payload;
@@ -17,9 +17,48 @@ public class PacketLogin extends Packet {
 	public PacketLogin() {
 		super( PacketRegistry.PACKET_CLIENT_HANDSHAKE );
 	}
+
+	public int getProtocol() {
+		this.ensureDecoded();
+		return this.protocol;
+	}
+
+	/**
+	 * Sets the protocol version. Received packets get the new version patched into their raw bytes.
+	 *
+	 * @param protocol The protocol version
+	 */
+	public void setProtocol( int protocol ) {
+		if ( !this.patchInt( FIELD_PROTOCOL, protocol ) ) {
+			this.markModified();
+		}
+
+		this.protocol = protocol;
+	}
+
+	public byte[] getPayload() {
+		this.ensureDecoded();
+		return this.payload;
+	}
+
+	public void setPayload( byte[] payload ) {
+		this.ensureDecoded();
+		this.payload = payload;
+		this.markModified();
+	}
 	
 	@Override
-	public void serialize( PacketBuffer buffer ) {
+	public int estimateLength() {
+		int estimate = super.estimateLength();
+		if ( estimate >= 0 ) {
+			return estimate;
+		}
+
+		return this.payload == null ? -1 : 4 + 5 + this.payload.length;
+	}
+
+	@Override
+	protected void encode( PacketBuffer buffer ) {
 		buffer.writeInt( this.protocol );
 
 		buffer.writeUnsignedVarInt( this.payload.length );
@@ -27,7 +66,13 @@ public class PacketLogin extends Packet {
 	}
 	
 	@Override
-	public void deserialize( PacketBuffer buffer ) {
+	protected void scan( PacketBuffer buffer ) {
+		this.recordOffset( FIELD_PROTOCOL, buffer );
+	}
+
+	@Override
+	protected void decode( PacketBuffer buffer ) {
+		this.recordOffset( FIELD_PROTOCOL, buffer );
 		this.protocol = buffer.readInt();
 
 		this.payload = new byte[buffer.readUnsignedVarInt()];
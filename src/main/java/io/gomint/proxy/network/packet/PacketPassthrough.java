@@ -1,28 +1,67 @@
 package io.gomint.proxy.network.packet;
 
 import io.gomint.jraknet.PacketBuffer;
+import io.netty.buffer.ByteBuf;
 
 /**
+ * Packet which is forwarded without being decoded. It holds a retained slice of the batch it has been received in,
+ * including its original header, so it can be written back out without copying or re-serializing it.
+ *
  * @author geNAZt
  * @version 1.0
  */
 public class PacketPassthrough extends Packet {
 
-    private byte[] data;
+    private ByteBuf data;
 
-    public PacketPassthrough( byte id ) {
+    /**
+     * Create a new passthrough packet
+     *
+     * @param id   of the packet (without sender and target bits)
+     * @param data complete packet including its header, ownership of this reference is passed to the packet
+     */
+    public PacketPassthrough( int id, ByteBuf data ) {
         super( id );
+        this.data = data;
+    }
+
+    /**
+     * Get the complete packet data including the original header
+     *
+     * @return the packet data
+     */
+    public ByteBuf getData() {
+        return this.data;
+    }
+
+    /**
+     * Release the packet data. The packet must not be used afterwards.
+     */
+    public void release() {
+        if ( this.data != null ) {
+            this.data.release();
+            this.data = null;
+        }
+    }
+
+    @Override
+    public int estimateLength() {
+        return this.data != null ? this.data.readableBytes() : -1;
+    }
+
+    @Override
+    public void serializeHeader( PacketBuffer buffer ) {
+        // The header is part of the data
     }
 
     @Override
     public void serialize( PacketBuffer buffer ) {
-        buffer.writeBytes( this.data );
+        buffer.writeBytes( this.data.slice() );
     }
 
     @Override
     public void deserialize( PacketBuffer buffer ) {
-        this.data = new byte[buffer.getRemaining()];
-        buffer.readBytes( this.data );
+        // Passthrough packets are created from their received bytes, including the header
     }
 
 }
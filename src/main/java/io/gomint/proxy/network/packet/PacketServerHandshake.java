@@ -24,6 +24,12 @@ public class PacketServerHandshake extends Packet {
 		super( PacketRegistry.PACKET_SERVER_HANDSHAKE );
 	}
 	
+	@Override
+	public int estimateLength() {
+		// JWTs are plain ASCII
+		return this.jwtData == null ? -1 : 5 + this.jwtData.length();
+	}
+
 	@Override
 	public void serialize( PacketBuffer buffer ) {
 		buffer.writeString( this.jwtData );
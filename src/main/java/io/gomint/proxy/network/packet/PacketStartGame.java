@@ -2,28 +2,32 @@ package io.gomint.proxy.network.packet;
 
 import io.gomint.jraknet.PacketBuffer;
 import io.gomint.proxy.Gamerule;
-import io.gomint.proxy.asset.AssetAssembler;
 import io.gomint.proxy.math.Location;
 import io.gomint.proxy.network.PacketRegistry;
 import io.gomint.proxy.util.StringShortPair;
-import io.gomint.taglib.AllocationLimitReachedException;
-import io.gomint.taglib.NBTReader;
-import java.io.IOException;
-import java.nio.ByteOrder;
-import lombok.Data;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
+ * Start game packet. Fields are only decoded once one of the getters is used, the entity IDs can be patched for
+ * entity ID translation without re-encoding the packet.
+ * <p>
+ * Decoding keeps every field, including the ones the proxy does not care about, so a decoded packet encodes back to
+ * the bytes it was read from. The block palette is expected to be empty, the game rules and everything after the
+ * item table are kept as raw bytes.
+ *
  * @author geNAZt
  * @version 1.0
  */
-@Data
-public class PacketStartGame extends Packet {
+public class PacketStartGame extends LazyPacket {
 
-    private byte[] data;
+    private static final int FIELD_ENTITY_ID = 0;
+    private static final int FIELD_RUNTIME_ENTITY_ID = 1;
 
     // Entity data
     private long entityId;
@@ -33,6 +37,8 @@ public class PacketStartGame extends Packet {
 
     // Level data
     private int seed;
+    private short biomeType;
+    private String biomeName;
     private int dimension;
     private int generator;
     private int worldGamemode;
@@ -42,62 +48,83 @@ public class PacketStartGame extends Packet {
     private int z;
     private boolean hasAchievementsDisabled = true;
     private int dayCycleStopTime;
-    private boolean eduMode;
+    private int eduOffer;
     private boolean hasEduModeEnabled;
+    private String eduProductId;
     private float rainLevel;
     private float lightningLevel;
+    private boolean hasConfirmedPlatformLockedContent;
     private boolean isMultiplayerGame = true;
     private boolean hasLANBroadcast = true;
-    private boolean hasXboxLiveBroadcast = false;
     private boolean commandsEnabled;
     private boolean isTexturePacksRequired;
 
     // Gamerule data
     private Map<Gamerule, Object> gamerules;
+    private byte[] gameruleData;
+
+    // Experiments
+    private Map<String, Boolean> experiments;
+    private boolean experimentsPreviouslyToggled;
 
     // Level data
     private boolean hasBonusChestEnabled;
     private boolean hasStartWithMapEnabled;
-    private boolean hasTrustPlayersEnabled;
     private int defaultPlayerPermission = 1;
     private int xboxLiveBroadcastMode = 0;
     private int serverTickRate;
-    private boolean hasPlatformBroadcast;
     private int platformBroadcastMode;
-    private boolean xboxLiveBroadcastIntent;
     private boolean lockedBehaviour;
     private boolean lockedResource;
     private boolean lockedWorld;
+    private boolean fromLockedWorldTemplate;
+    private boolean onlySpawningV1Villagers;
+    private boolean fromWorldTemplate;
+    private boolean worldTemplateOptionLocked;
+    private String vanillaVersion;
+    private int limitedWorldWidth;
+    private int limitedWorldHeight;
+    private boolean netherType;
+    private boolean hasForceExperimentalGameplay;
+    private boolean forceExperimentalGameplay;
 
     // World data
     private String levelId;
     private String worldName;
     private String templateName;
     private boolean unknown1;
+    private boolean trial;
     private long currentTick;
     private int enchantmentSeed;
 
     // Block data
+    private int blockPaletteSize;
     private List<StringShortPair> blockPalette;
 
+    // Item data
+    private List<StringShortPair> itemLegacyIds;
+    private boolean[] itemComponentBased;
+
+    // Everything after the item table
+    private byte[] trailer;
+
     public PacketStartGame() {
         super( PacketRegistry.PACKET_START_GAME );
     }
 
     @Override
-    public void serialize( PacketBuffer buffer ) {
-        buffer.writeBytes(this.data);
+    protected void scan( PacketBuffer buffer ) {
+        // Both entity IDs are at the start, no need to parse the rest
+        this.recordOffset( FIELD_ENTITY_ID, buffer );
+        buffer.readSignedVarLong();
+        this.recordOffset( FIELD_RUNTIME_ENTITY_ID, buffer );
     }
 
     @Override
-    public void deserialize( PacketBuffer buffer ) {
-        // Copy first
-        int pos = buffer.getReadPosition();
-        this.data = new byte[buffer.getRemaining()];
-        buffer.readBytes(this.data);
-        buffer.setReadPosition(pos);
-
+    protected void decode( PacketBuffer buffer ) {
+        this.recordOffset( FIELD_ENTITY_ID, buffer );
         this.entityId = buffer.readSignedVarLong().longValue();
+        this.recordOffset( FIELD_RUNTIME_ENTITY_ID, buffer );
         this.runtimeEntityId = buffer.readUnsignedVarLong();
         this.gamemode = buffer.readSignedVarInt();
 
@@ -105,37 +132,47 @@ public class PacketStartGame extends Packet {
 
         this.seed = buffer.readSignedVarInt();
 
-        short biomeType = buffer.readLShort();
-        String biomeName = buffer.readString();
+        this.biomeType = buffer.readLShort();
+        this.biomeName = buffer.readString();
         this.dimension = buffer.readSignedVarInt();
 
         this.generator = buffer.readSignedVarInt();
         this.worldGamemode = buffer.readSignedVarInt();
         this.difficulty = buffer.readSignedVarInt();
 
-        int spawnX = buffer.readSignedVarInt();
-        int spawnY = buffer.readSignedVarInt();
-        int spawnZ = buffer.readSignedVarInt();
+        this.x = buffer.readSignedVarInt();
+        this.y = buffer.readSignedVarInt();
+        this.z = buffer.readSignedVarInt();
 
         this.hasAchievementsDisabled = buffer.readBoolean();
         this.dayCycleStopTime = buffer.readSignedVarInt();
-        int eudOffer = buffer.readSignedVarInt();
+        this.eduOffer = buffer.readSignedVarInt();
         this.hasEduModeEnabled = buffer.readBoolean();
-        String eduProductID = buffer.readString();
+        this.eduProductId = buffer.readString();
         this.rainLevel = buffer.readLFloat();
         this.lightningLevel = buffer.readLFloat();
-        buffer.readBoolean();
+        this.hasConfirmedPlatformLockedContent = buffer.readBoolean();
         this.isMultiplayerGame = buffer.readBoolean();
         this.hasLANBroadcast = buffer.readBoolean();
-        buffer.readSignedVarInt();
-        buffer.readSignedVarInt();
+        this.xboxLiveBroadcastMode = buffer.readSignedVarInt();
+        this.platformBroadcastMode = buffer.readSignedVarInt();
         this.commandsEnabled = buffer.readBoolean();
         this.isTexturePacksRequired = buffer.readBoolean();
+
+        // Game rules are only partially understood, keep their bytes for encoding
+        ByteBuf in = buffer.getBuffer();
+        int gameruleStart = in.readerIndex();
         this.gamerules = readGamerules( buffer );
+        this.gameruleData = ByteBufUtil.getBytes( in, gameruleStart, in.readerIndex() - gameruleStart );
+
+        int amountOfExperiments = buffer.readLInt();
+        this.experiments = new LinkedHashMap<>();
+        for ( int i = 0; i < amountOfExperiments; i++ ) {
+            String name = buffer.readString();
+            this.experiments.put( name, buffer.readBoolean() );
+        }
 
-        int experiments = buffer.readLInt();
-        System.out.println("Amount of experiments: " + experiments);
-        buffer.readBoolean();
+        this.experimentsPreviouslyToggled = buffer.readBoolean();
 
         this.hasBonusChestEnabled = buffer.readBoolean();
         this.hasStartWithMapEnabled = buffer.readBoolean();
@@ -145,54 +182,366 @@ public class PacketStartGame extends Packet {
         this.lockedBehaviour = buffer.readBoolean();
         this.lockedResource = buffer.readBoolean();
         this.lockedWorld = buffer.readBoolean();
-        buffer.readBoolean();
-        buffer.readBoolean();
-        buffer.readBoolean();
-        buffer.readBoolean();
-
-        buffer.readString();
-
-        buffer.readLInt();
-        buffer.readLInt();
-        buffer.readBoolean();
-        if (buffer.readBoolean()) {
-            buffer.readBoolean();
+        this.fromLockedWorldTemplate = buffer.readBoolean();
+        this.onlySpawningV1Villagers = buffer.readBoolean();
+        this.fromWorldTemplate = buffer.readBoolean();
+        this.worldTemplateOptionLocked = buffer.readBoolean();
+
+        this.vanillaVersion = buffer.readString();
+
+        this.limitedWorldWidth = buffer.readLInt();
+        this.limitedWorldHeight = buffer.readLInt();
+        this.netherType = buffer.readBoolean();
+        this.hasForceExperimentalGameplay = buffer.readBoolean();
+        if ( this.hasForceExperimentalGameplay ) {
+            this.forceExperimentalGameplay = buffer.readBoolean();
         }
 
         this.levelId = buffer.readString();
         this.worldName = buffer.readString();
         this.templateName = buffer.readString();
         this.unknown1 = buffer.readBoolean();
-        buffer.readBoolean();
+        this.trial = buffer.readBoolean();
         this.currentTick = buffer.readLLong();
         this.enchantmentSeed = buffer.readSignedVarInt();
 
-        int amountOfBlocks = buffer.readUnsignedVarInt();
-        System.out.println("Amount of blocks: " + amountOfBlocks);
-        /*NBTReader readerNoBuffer = new NBTReader(buffer.getBuffer(), ByteOrder.LITTLE_ENDIAN);
-        readerNoBuffer.setUseVarint(true);
+        this.blockPaletteSize = buffer.readUnsignedVarInt();
 
-        try {
-            List<Object> compound = readerNoBuffer.parseList();
-            AssetAssembler.writeBlockPalette(compound);
-        } catch (IOException | AllocationLimitReachedException e) {
-            e.printStackTrace();
-        }*/
-
-        List<StringShortPair> itemLegacyIds = new ArrayList<>();
         int itemListLength = buffer.readUnsignedVarInt();
-        for (int i = 0; i < itemListLength; i++) {
+        List<StringShortPair> itemLegacyIds = new ArrayList<>( itemListLength );
+        this.itemComponentBased = new boolean[itemListLength];
+        for ( int i = 0; i < itemListLength; i++ ) {
             String itemName = buffer.readString();
             short legacyId = buffer.readLShort();
-            boolean itemUsedCompound = buffer.readBoolean();
+            this.itemComponentBased[i] = buffer.readBoolean();
+
+            itemLegacyIds.add( new StringShortPair( itemName, legacyId ) );
+        }
+
+        this.itemLegacyIds = itemLegacyIds;
 
-            System.out.println(itemName + " -> " + legacyId);
+        this.trailer = new byte[in.readableBytes()];
+        buffer.readBytes( this.trailer );
+    }
+
+    @Override
+    protected void encode( PacketBuffer buffer ) {
+        buffer.writeSignedVarLong( this.entityId );
+        buffer.writeUnsignedVarLong( this.runtimeEntityId );
+        buffer.writeSignedVarInt( this.gamemode );
+
+        buffer.writeLFloat( this.spawn.getX() );
+        buffer.writeLFloat( this.spawn.getY() );
+        buffer.writeLFloat( this.spawn.getZ() );
+        buffer.writeLFloat( this.spawn.getYaw() );
+        buffer.writeLFloat( this.spawn.getPitch() );
+
+        buffer.writeSignedVarInt( this.seed );
+
+        buffer.writeLShort( this.biomeType );
+        buffer.writeString( this.biomeName );
+        buffer.writeSignedVarInt( this.dimension );
+
+        buffer.writeSignedVarInt( this.generator );
+        buffer.writeSignedVarInt( this.worldGamemode );
+        buffer.writeSignedVarInt( this.difficulty );
+
+        buffer.writeSignedVarInt( this.x );
+        buffer.writeSignedVarInt( this.y );
+        buffer.writeSignedVarInt( this.z );
+
+        buffer.writeBoolean( this.hasAchievementsDisabled );
+        buffer.writeSignedVarInt( this.dayCycleStopTime );
+        buffer.writeSignedVarInt( this.eduOffer );
+        buffer.writeBoolean( this.hasEduModeEnabled );
+        buffer.writeString( this.eduProductId );
+        buffer.writeLFloat( this.rainLevel );
+        buffer.writeLFloat( this.lightningLevel );
+        buffer.writeBoolean( this.hasConfirmedPlatformLockedContent );
+        buffer.writeBoolean( this.isMultiplayerGame );
+        buffer.writeBoolean( this.hasLANBroadcast );
+        buffer.writeSignedVarInt( this.xboxLiveBroadcastMode );
+        buffer.writeSignedVarInt( this.platformBroadcastMode );
+        buffer.writeBoolean( this.commandsEnabled );
+        buffer.writeBoolean( this.isTexturePacksRequired );
+
+        if ( this.gameruleData != null ) {
+            buffer.writeBytes( this.gameruleData );
+        } else {
+            writeGamerules( this.gamerules, buffer );
+        }
+
+        buffer.writeLInt( this.experiments.size() );
+        for ( Map.Entry<String, Boolean> entry : this.experiments.entrySet() ) {
+            buffer.writeString( entry.getKey() );
+            buffer.writeBoolean( entry.getValue() );
+        }
+
+        buffer.writeBoolean( this.experimentsPreviouslyToggled );
+
+        buffer.writeBoolean( this.hasBonusChestEnabled );
+        buffer.writeBoolean( this.hasStartWithMapEnabled );
+
+        buffer.writeSignedVarInt( this.defaultPlayerPermission );
+        buffer.writeInt( this.serverTickRate );
+        buffer.writeBoolean( this.lockedBehaviour );
+        buffer.writeBoolean( this.lockedResource );
+        buffer.writeBoolean( this.lockedWorld );
+        buffer.writeBoolean( this.fromLockedWorldTemplate );
+        buffer.writeBoolean( this.onlySpawningV1Villagers );
+        buffer.writeBoolean( this.fromWorldTemplate );
+        buffer.writeBoolean( this.worldTemplateOptionLocked );
+
+        buffer.writeString( this.vanillaVersion );
+
+        buffer.writeLInt( this.limitedWorldWidth );
+        buffer.writeLInt( this.limitedWorldHeight );
+        buffer.writeBoolean( this.netherType );
+        buffer.writeBoolean( this.hasForceExperimentalGameplay );
+        if ( this.hasForceExperimentalGameplay ) {
+            buffer.writeBoolean( this.forceExperimentalGameplay );
+        }
+
+        buffer.writeString( this.levelId );
+        buffer.writeString( this.worldName );
+        buffer.writeString( this.templateName );
+        buffer.writeBoolean( this.unknown1 );
+        buffer.writeBoolean( this.trial );
+        buffer.writeLLong( this.currentTick );
+        buffer.writeSignedVarInt( this.enchantmentSeed );
+
+        buffer.writeUnsignedVarInt( this.blockPaletteSize );
+
+        buffer.writeUnsignedVarInt( this.itemLegacyIds.size() );
+        for ( int i = 0; i < this.itemLegacyIds.size(); i++ ) {
+            StringShortPair itemLegacyId = this.itemLegacyIds.get( i );
+            buffer.writeString( itemLegacyId.getBlockId() );
+            buffer.writeLShort( itemLegacyId.getData() );
+            buffer.writeBoolean( i < this.itemComponentBased.length && this.itemComponentBased[i] );
+        }
+
+        buffer.writeBytes( this.trailer );
+    }
+
+    public long getEntityId() {
+        this.ensureDecoded();
+        return this.entityId;
+    }
+
+    public long getRuntimeEntityId() {
+        this.ensureDecoded();
+        return this.runtimeEntityId;
+    }
 
-            itemLegacyIds.add(new StringShortPair(itemName, legacyId));
+    /**
+     * Sets the unique entity ID by patching it into the raw bytes of the packet
+     *
+     * @param entityId The new unique entity ID
+     */
+    public void setEntityId( long entityId ) {
+        if ( !this.patchSignedVarLong( FIELD_ENTITY_ID, entityId ) ) {
+            this.markModified();
         }
 
-        AssetAssembler.writeLegacyItems(itemLegacyIds);
-        System.out.println(itemListLength);
+        this.entityId = entityId;
+    }
+
+    /**
+     * Sets the runtime entity ID by patching it into the raw bytes of the packet
+     *
+     * @param runtimeEntityId The new runtime entity ID
+     */
+    public void setRuntimeEntityId( long runtimeEntityId ) {
+        if ( !this.patchUnsignedVarLong( FIELD_RUNTIME_ENTITY_ID, runtimeEntityId ) ) {
+            this.markModified();
+        }
+
+        this.runtimeEntityId = runtimeEntityId;
+    }
+
+    public int getGamemode() {
+        this.ensureDecoded();
+        return this.gamemode;
+    }
+
+    public Location getSpawn() {
+        this.ensureDecoded();
+        return this.spawn;
+    }
+
+    public int getSeed() {
+        this.ensureDecoded();
+        return this.seed;
+    }
+
+    public int getDimension() {
+        this.ensureDecoded();
+        return this.dimension;
+    }
+
+    public int getGenerator() {
+        this.ensureDecoded();
+        return this.generator;
+    }
+
+    public int getWorldGamemode() {
+        this.ensureDecoded();
+        return this.worldGamemode;
+    }
+
+    public int getDifficulty() {
+        this.ensureDecoded();
+        return this.difficulty;
+    }
+
+    public int getX() {
+        this.ensureDecoded();
+        return this.x;
+    }
+
+    public int getY() {
+        this.ensureDecoded();
+        return this.y;
+    }
+
+    public int getZ() {
+        this.ensureDecoded();
+        return this.z;
+    }
+
+    public boolean isHasAchievementsDisabled() {
+        this.ensureDecoded();
+        return this.hasAchievementsDisabled;
+    }
+
+    public int getDayCycleStopTime() {
+        this.ensureDecoded();
+        return this.dayCycleStopTime;
+    }
+
+    public boolean isHasEduModeEnabled() {
+        this.ensureDecoded();
+        return this.hasEduModeEnabled;
+    }
+
+    public float getRainLevel() {
+        this.ensureDecoded();
+        return this.rainLevel;
+    }
+
+    public float getLightningLevel() {
+        this.ensureDecoded();
+        return this.lightningLevel;
+    }
+
+    public boolean isMultiplayerGame() {
+        this.ensureDecoded();
+        return this.isMultiplayerGame;
+    }
+
+    public boolean isHasLANBroadcast() {
+        this.ensureDecoded();
+        return this.hasLANBroadcast;
+    }
+
+    public boolean isCommandsEnabled() {
+        this.ensureDecoded();
+        return this.commandsEnabled;
+    }
+
+    public boolean isTexturePacksRequired() {
+        this.ensureDecoded();
+        return this.isTexturePacksRequired;
+    }
+
+    public Map<Gamerule, Object> getGamerules() {
+        this.ensureDecoded();
+        return this.gamerules;
+    }
+
+    public boolean isHasBonusChestEnabled() {
+        this.ensureDecoded();
+        return this.hasBonusChestEnabled;
+    }
+
+    public boolean isHasStartWithMapEnabled() {
+        this.ensureDecoded();
+        return this.hasStartWithMapEnabled;
+    }
+
+    public int getDefaultPlayerPermission() {
+        this.ensureDecoded();
+        return this.defaultPlayerPermission;
+    }
+
+    public int getXboxLiveBroadcastMode() {
+        this.ensureDecoded();
+        return this.xboxLiveBroadcastMode;
+    }
+
+    public int getServerTickRate() {
+        this.ensureDecoded();
+        return this.serverTickRate;
+    }
+
+    public int getPlatformBroadcastMode() {
+        this.ensureDecoded();
+        return this.platformBroadcastMode;
+    }
+
+    public boolean isLockedBehaviour() {
+        this.ensureDecoded();
+        return this.lockedBehaviour;
+    }
+
+    public boolean isLockedResource() {
+        this.ensureDecoded();
+        return this.lockedResource;
+    }
+
+    public boolean isLockedWorld() {
+        this.ensureDecoded();
+        return this.lockedWorld;
+    }
+
+    public String getLevelId() {
+        this.ensureDecoded();
+        return this.levelId;
+    }
+
+    public String getWorldName() {
+        this.ensureDecoded();
+        return this.worldName;
+    }
+
+    public String getTemplateName() {
+        this.ensureDecoded();
+        return this.templateName;
+    }
+
+    public boolean isUnknown1() {
+        this.ensureDecoded();
+        return this.unknown1;
+    }
+
+    public long getCurrentTick() {
+        this.ensureDecoded();
+        return this.currentTick;
+    }
+
+    public int getEnchantmentSeed() {
+        this.ensureDecoded();
+        return this.enchantmentSeed;
+    }
+
+    public List<StringShortPair> getBlockPalette() {
+        this.ensureDecoded();
+        return this.blockPalette;
+    }
+
+    public List<StringShortPair> getItemLegacyIds() {
+        this.ensureDecoded();
+        return this.itemLegacyIds;
     }
 
 }
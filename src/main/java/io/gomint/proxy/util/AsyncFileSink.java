@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Appends lines to a file from a background thread. Writers only enqueue, so they never wait for the disk; when the
+ * queue is full lines are dropped and counted. The file is rotated once it grows over a size limit, the rotated files
+ * are named {@code <file>.1} (newest) up to {@code <file>.<maxFiles>} (oldest).
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+public class AsyncFileSink {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( AsyncFileSink.class );
+
+    private final File file;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final BlockingQueue<String> lines;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writerThread;
+
+    private volatile boolean running = true;
+    private BufferedWriter writer;
+    private long fileSize;
+
+    /**
+     * Create and start a new sink
+     *
+     * @param file          to which lines are appended
+     * @param queueCapacity amount of lines which may wait for the writer
+     * @param maxFileSize   in bytes after which the file is rotated
+     * @param maxFiles      amount of rotated files which are kept
+     */
+    public AsyncFileSink( File file, int queueCapacity, long maxFileSize, int maxFiles ) {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.lines = new ArrayBlockingQueue<>( queueCapacity );
+
+        this.writerThread = new Thread( this::run, "File Sink " + file.getName() );
+        this.writerThread.setDaemon( true );
+        this.writerThread.start();
+    }
+
+    /**
+     * Enqueue a line. Never blocks.
+     *
+     * @param line which should be appended, without line separator
+     * @return true when the line has been queued, false when it has been dropped
+     */
+    public boolean offer( String line ) {
+        if ( !this.running || !this.lines.offer( line ) ) {
+            this.dropped.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    public long getDroppedCount() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Stop the writer after it wrote the lines which are already queued
+     */
+    public void close() {
+        this.running = false;
+        this.writerThread.interrupt();
+
+        try {
+            this.writerThread.join( TimeUnit.SECONDS.toMillis( 5 ) );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while ( this.running || !this.lines.isEmpty() ) {
+                String line;
+                try {
+                    line = this.lines.poll( 1, TimeUnit.SECONDS );
+                } catch ( InterruptedException e ) {
+                    continue;
+                }
+
+                if ( line == null ) {
+                    continue;
+                }
+
+                try {
+                    this.write( line );
+
+                    // Drain what piled up before flushing once
+                    while ( ( line = this.lines.poll() ) != null ) {
+                        this.write( line );
+                    }
+
+                    this.writer.flush();
+                } catch ( IOException e ) {
+                    LOGGER.warn( "Could not write to " + this.file, e );
+                    this.closeWriter();
+                }
+            }
+        } finally {
+            this.closeWriter();
+        }
+    }
+
+    private void write( String line ) throws IOException {
+        if ( this.writer == null ) {
+            this.fileSize = this.file.length();
+            this.writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( this.file, true ), StandardCharsets.UTF_8 ) );
+        }
+
+        this.writer.write( line );
+        this.writer.newLine();
+        this.fileSize += line.length() + 1;
+
+        if ( this.fileSize >= this.maxFileSize ) {
+            this.rotate();
+        }
+    }
+
+    private void rotate() {
+        this.closeWriter();
+
+        File oldest = new File( this.file.getPath() + "." + this.maxFiles );
+        if ( oldest.exists() && !oldest.delete() ) {
+            LOGGER.warn( "Could not delete " + oldest );
+        }
+
+        for ( int i = this.maxFiles - 1; i >= 1; i-- ) {
+            File rotated = new File( this.file.getPath() + "." + i );
+            if ( rotated.exists() ) {
+                rotated.renameTo( new File( this.file.getPath() + "." + ( i + 1 ) ) );
+            }
+        }
+
+        if ( this.maxFiles > 0 ) {
+            this.file.renameTo( new File( this.file.getPath() + ".1" ) );
+        } else {
+            this.file.delete();
+        }
+    }
+
+    private void closeWriter() {
+        if ( this.writer != null ) {
+            try {
+                this.writer.close();
+            } catch ( IOException e ) {
+                LOGGER.warn( "Could not close " + this.file, e );
+            }
+
+            this.writer = null;
+        }
+    }
+
+}
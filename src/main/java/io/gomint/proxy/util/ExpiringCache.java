@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded LRU cache whose entries expire a fixed time after they have been computed. It remembers how long computing
+ * each value took, so a hit can report how much work it saved.
+ * <p>
+ * Values are computed outside of the cache lock; two threads missing the same key at once both compute it.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ * @author geNAZt
+ * @version 1.0
+ */
+public class ExpiringCache<K, V> {
+
+    private final String name;
+    private final long ttlNanos;
+    private final Map<K, Entry<V>> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder savedNanos = new LongAdder();
+
+    /**
+     * Create a new cache
+     *
+     * @param name       of the cache, used in {@link #toString()}
+     * @param maxEntries after which the least recently used entries are evicted
+     * @param ttl        after which entries expire
+     * @param unit       of the ttl
+     */
+    public ExpiringCache( String name, int maxEntries, long ttl, TimeUnit unit ) {
+        this.name = name;
+        this.ttlNanos = unit.toNanos( ttl );
+        this.entries = new LinkedHashMap<K, Entry<V>>( 16, 0.75f, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<K, Entry<V>> eldest ) {
+                return this.size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get the cached value for the given key or compute it. Null values are not cached.
+     *
+     * @param key    of the value
+     * @param loader which computes the value on a miss
+     * @return cached or computed value
+     */
+    public V computeIfAbsent( K key, Function<K, V> loader ) {
+        long now = System.nanoTime();
+
+        synchronized ( this.entries ) {
+            Entry<V> entry = this.entries.get( key );
+            if ( entry != null ) {
+                if ( now - entry.createdAt < this.ttlNanos ) {
+                    this.hits.increment();
+                    this.savedNanos.add( entry.computeNanos );
+                    return entry.value;
+                }
+
+                this.entries.remove( key );
+            }
+        }
+
+        this.misses.increment();
+        V value = loader.apply( key );
+        if ( value != null ) {
+            long computed = System.nanoTime();
+            synchronized ( this.entries ) {
+                this.entries.put( key, new Entry<>( value, computed, computed - now ) );
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear() {
+        synchronized ( this.entries ) {
+            this.entries.clear();
+        }
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Get the share of lookups which have been answered from the cache
+     *
+     * @return hit rate between 0 and 1
+     */
+    public double getHitRate() {
+        long hits = this.hits.sum();
+        long total = hits + this.misses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Get how much computation time hits saved in total
+     *
+     * @param unit in which the time should be returned
+     * @return saved time
+     */
+    public long getTimeSaved( TimeUnit unit ) {
+        return unit.convert( this.savedNanos.sum(), TimeUnit.NANOSECONDS );
+    }
+
+    @Override
+    public String toString() {
+        int size;
+        synchronized ( this.entries ) {
+            size = this.entries.size();
+        }
+
+        return String.format( "%s: size=%d hits=%d misses=%d hitRate=%.1f%% saved=%dms", this.name, size,
+            this.getHits(), this.getMisses(), this.getHitRate() * 100, this.getTimeSaved( TimeUnit.MILLISECONDS ) );
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private final long createdAt;
+        private final long computeNanos;
+
+        private Entry( V value, long createdAt, long computeNanos ) {
+            this.value = value;
+            this.createdAt = createdAt;
+            this.computeNanos = computeNanos;
+        }
+
+    }
+
+}
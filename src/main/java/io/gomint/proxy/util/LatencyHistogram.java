@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram with power-of-two buckets. Bucket {@code i} counts values in {@code [2^(i-1), 2^i)} of the
+ * histogram's unit, bucket 0 counts zero. It is cheap enough to be recorded into on every packet hop.
+ *
+ * @author geNAZt
+ * @version 1.0
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final String name;
+    private final String unit;
+    private final AtomicLongArray buckets = new AtomicLongArray( BUCKETS );
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Create a new histogram
+     *
+     * @param name which is used when printing the histogram
+     * @param unit of the recorded values, only used when printing
+     */
+    public LatencyHistogram( String name, String unit ) {
+        this.name = name;
+        this.unit = unit;
+    }
+
+    /**
+     * Record a latency given in nanoseconds. It is stored with microsecond precision.
+     *
+     * @param nanos which should be recorded
+     */
+    public void recordNanos( long nanos ) {
+        this.record( TimeUnit.NANOSECONDS.toMicros( nanos ) );
+    }
+
+    /**
+     * Record a raw value
+     *
+     * @param value which should be recorded, negative values are treated as zero
+     */
+    public void record( long value ) {
+        if ( value < 0 ) {
+            value = 0;
+        }
+
+        int bucket = Math.min( BUCKETS - 1, 64 - Long.numberOfLeadingZeros( value ) );
+        this.buckets.incrementAndGet( bucket );
+        this.count.increment();
+        this.sum.add( value );
+    }
+
+    /**
+     * Get the amount of values recorded
+     *
+     * @return amount of recorded values
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * Get the arithmetic mean of all recorded values
+     *
+     * @return mean of all values or 0 if nothing has been recorded
+     */
+    public double getMean() {
+        long count = this.count.sum();
+        return count == 0 ? 0 : (double) this.sum.sum() / count;
+    }
+
+    /**
+     * Get the upper bound of the bucket which contains the given percentile
+     *
+     * @param percentile which should be looked up (0.0 - 1.0)
+     * @return upper bound of the bucket containing the percentile
+     */
+    public long getPercentile( double percentile ) {
+        long count = this.count.sum();
+        if ( count == 0 ) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil( count * percentile );
+        long seen = 0;
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            seen += this.buckets.get( i );
+            if ( seen >= target ) {
+                return i == 0 ? 0 : 1L << i;
+            }
+        }
+
+        return 1L << ( BUCKETS - 1 );
+    }
+
+    /**
+     * Reset all recorded values
+     */
+    public void reset() {
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            this.buckets.set( i, 0 );
+        }
+
+        this.count.reset();
+        this.sum.reset();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder( this.name )
+            .append( " [count=" ).append( this.getCount() )
+            .append( ", mean=" ).append( String.format( "%.1f", this.getMean() ) ).append( this.unit )
+            .append( ", p50<=" ).append( this.getPercentile( 0.5 ) ).append( this.unit )
+            .append( ", p99<=" ).append( this.getPercentile( 0.99 ) ).append( this.unit )
+            .append( ", max<=" ).append( this.getPercentile( 1.0 ) ).append( this.unit )
+            .append( "] buckets:" );
+
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            long bucketCount = this.buckets.get( i );
+            if ( bucketCount > 0 ) {
+                builder.append( " <" ).append( i == 0 ? 1 : 1L << i ).append( this.unit ).append( '=' ).append( bucketCount );
+            }
+        }
+
+        return builder.toString();
+    }
+
+}
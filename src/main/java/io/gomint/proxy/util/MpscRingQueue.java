@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded multi-producer / single-consumer queue backed by a ring buffer. Producers claim a slot with a single CAS
+ * and never block, the consumer never contends with producers. Nothing is allocated per element.
+ * <p>
+ * Only one thread may call {@link #poll()}, {@link #peek()} and {@link #clear()} at a time.
+ *
+ * @param <E> type of the elements in this queue
+ * @author geNAZt
+ * @version 1.0
+ */
+public class MpscRingQueue<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final LongAdder overflows = new LongAdder();
+
+    // Only written by the consumer, volatile so other threads can read the depth
+    private volatile long consumerIndex;
+
+    /**
+     * Create a new queue
+     *
+     * @param capacity of the queue, rounded up to the next power of two
+     */
+    public MpscRingQueue( int capacity ) {
+        if ( capacity < 2 ) {
+            capacity = 2;
+        }
+
+        int size = Integer.highestOneBit( capacity - 1 ) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>( size );
+        this.sequences = new AtomicLongArray( size );
+        for ( int i = 0; i < size; i++ ) {
+            this.sequences.set( i, i );
+        }
+    }
+
+    /**
+     * Enqueue a element. May be called from any thread.
+     *
+     * @param element which should be enqueued
+     * @return true when the element has been enqueued, false when the queue is full
+     */
+    public boolean offer( E element ) {
+        long index = this.producerIndex.get();
+        while ( true ) {
+            int slot = (int) ( index & this.mask );
+            long diff = this.sequences.get( slot ) - index;
+            if ( diff == 0 ) {
+                if ( this.producerIndex.compareAndSet( index, index + 1 ) ) {
+                    this.elements.lazySet( slot, element );
+                    this.sequences.lazySet( slot, index + 1 );
+                    return true;
+                }
+            } else if ( diff < 0 ) {
+                // Consumer did not free this slot yet
+                this.overflows.increment();
+                return false;
+            }
+
+            index = this.producerIndex.get();
+        }
+    }
+
+    /**
+     * Dequeue the next element. Must only be called by the consumer.
+     *
+     * @return the next element or null when the queue is empty or the next producer did not finish writing yet
+     */
+    public E poll() {
+        long index = this.consumerIndex;
+        int slot = (int) ( index & this.mask );
+        if ( this.sequences.get( slot ) != index + 1 ) {
+            return null;
+        }
+
+        E element = this.elements.get( slot );
+        this.elements.lazySet( slot, null );
+        this.sequences.lazySet( slot, index + this.mask + 1 );
+        this.consumerIndex = index + 1;
+        return element;
+    }
+
+    /**
+     * Get the next element without removing it. Must only be called by the consumer.
+     *
+     * @return the next element or null when the queue is empty
+     */
+    public E peek() {
+        long index = this.consumerIndex;
+        int slot = (int) ( index & this.mask );
+        if ( this.sequences.get( slot ) != index + 1 ) {
+            return null;
+        }
+
+        return this.elements.get( slot );
+    }
+
+    /**
+     * Drop all elements which are currently in the queue. Must only be called by the consumer.
+     */
+    public void clear() {
+        while ( this.poll() != null ) {
+            // Drain
+        }
+    }
+
+    /**
+     * Check if the queue is empty
+     *
+     * @return true when no element has been enqueued
+     */
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /**
+     * Get the current depth of the queue. This is only a snapshot when producers are active.
+     *
+     * @return amount of elements in the queue
+     */
+    public int size() {
+        long size = this.producerIndex.get() - this.consumerIndex;
+        return (int) Math.max( 0, Math.min( size, this.mask + 1 ) );
+    }
+
+    /**
+     * Get the capacity of this queue
+     *
+     * @return maximum amount of elements this queue can hold
+     */
+    public int capacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * Get the amount of offers which have been rejected because the queue was full
+     *
+     * @return amount of overflows since creation
+     */
+    public long getOverflowCount() {
+        return this.overflows.sum();
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.jwt;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author geNAZt
+ * @version 1.0
+ */
+public class JwtTokenTest {
+
+    private static KeyPair keyPair;
+    private static KeyPair otherKeyPair;
+
+    @BeforeAll
+    public static void generateKeys() throws Exception {
+        Security.addProvider( new BouncyCastleProvider() );
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance( "EC", "BC" );
+        generator.initialize( 384 );
+        keyPair = generator.generateKeyPair();
+        otherKeyPair = generator.generateKeyPair();
+    }
+
+    @Test
+    public void parsesForgedToken() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        String publicKey = Base64.getEncoder().encodeToString( keyPair.getPublic().getEncoded() );
+        JwtToken token = JwtToken.parse( forge( "Steve \"the\" Miner", uuid ) );
+
+        assertSame( JwtAlgorithm.ES384, token.getHeader().getAlgorithm() );
+        assertEquals( publicKey, token.getHeader().getProperty( String.class, "x5u" ) );
+        assertEquals( publicKey, token.getClaim( String.class, "identityPublicKey" ) );
+        assertEquals( Boolean.TRUE, token.getClaim( Boolean.class, "certificateAuthority" ) );
+
+        Map<String, Object> extraData = token.getClaim( Map.class, "extraData" );
+        assertEquals( "Steve \"the\" Miner", extraData.get( "displayName" ) );
+        assertEquals( uuid.toString(), extraData.get( "identity" ) );
+
+        // Claims the validator does not need are skipped
+        assertNull( token.getClaim( "iss" ) );
+        assertNull( token.getClaim( "nbf" ) );
+
+        // Wrong type
+        assertNull( token.getClaim( Integer.class, "identityPublicKey" ) );
+    }
+
+    @Test
+    public void signatureCoversOriginalBytes() throws Exception {
+        JwtToken token = JwtToken.parse( forge( "Steve", UUID.randomUUID() ) );
+        assertTrue( token.validateSignature( keyPair.getPublic() ) );
+        assertTrue( token.validateSignature( JwtAlgorithm.ES384, keyPair.getPublic() ) );
+        assertFalse( token.validateSignature( otherKeyPair.getPublic() ) );
+    }
+
+    @Test
+    public void tamperedClaimsFailValidation() throws Exception {
+        String[] parts = forge( "Steve", UUID.randomUUID() ).split( "\\." );
+        String claims = new String( Base64.getUrlDecoder().decode( parts[1] ), StandardCharsets.UTF_8 ).replace( "Steve", "Alex" );
+        String tampered = parts[0] + '.' + Base64.getUrlEncoder().encodeToString( claims.getBytes( StandardCharsets.UTF_8 ) ) + '.' + parts[2];
+
+        JwtToken token = JwtToken.parse( tampered );
+        assertEquals( "Alex", token.getClaim( Map.class, "extraData" ).get( "displayName" ) );
+        assertFalse( token.validateSignature( keyPair.getPublic() ) );
+    }
+
+    @Test
+    public void parsesStandardAlphabetAndNestedValues() {
+        // Mojang encodes with the standard alphabet and without padding
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        String header = encoder.encodeToString( "{\"alg\":\"ES384\",\"x5u\":\"a+b/c==\",\"kid\":[1,2]}".getBytes( StandardCharsets.UTF_8 ) );
+        String claims = encoder.encodeToString( ( "{\"randomNonce\":{\"x\":[1,{\"y\":null}]},\"salt\":\"c2FsdA==\"," +
+            "\"extraData\":{\"XUID\":\"2535\",\"titleId\":896928775,\"scale\":1.5,\"ids\":[true,false]}}" ).getBytes( StandardCharsets.UTF_8 ) );
+
+        JwtToken token = JwtToken.parse( header + '.' + claims + ".AAAA" );
+        assertEquals( "a+b/c==", token.getHeader().getProperty( String.class, "x5u" ) );
+        assertEquals( "c2FsdA==", token.getClaim( String.class, "salt" ) );
+        assertNull( token.getClaim( "randomNonce" ) );
+
+        Map<String, Object> extraData = token.getClaim( Map.class, "extraData" );
+        assertEquals( "2535", extraData.get( "XUID" ) );
+        assertEquals( 896928775L, extraData.get( "titleId" ) );
+        assertEquals( 1.5, extraData.get( "scale" ) );
+        assertEquals( Arrays.asList( true, false ), extraData.get( "ids" ) );
+    }
+
+    @Test
+    public void rejectsMalformedTokens() {
+        String header = Base64.getUrlEncoder().encodeToString( "{\"alg\":\"ES384\"}".getBytes( StandardCharsets.UTF_8 ) );
+        String array = Base64.getUrlEncoder().encodeToString( "[1,2]".getBytes( StandardCharsets.UTF_8 ) );
+        String broken = Base64.getUrlEncoder().encodeToString( "{\"alg\":".getBytes( StandardCharsets.UTF_8 ) );
+
+        assertThrows( IllegalArgumentException.class, () -> JwtToken.parse( "" ) );
+        assertThrows( IllegalArgumentException.class, () -> JwtToken.parse( header + "." + header ) );
+        assertThrows( IllegalArgumentException.class, () -> JwtToken.parse( header + "." + header + ".AAAA.AAAA" ) );
+        assertThrows( IllegalArgumentException.class, () -> JwtToken.parse( header + "." + array + ".AAAA" ) );
+        assertThrows( IllegalArgumentException.class, () -> JwtToken.parse( header + "." + broken + ".AAAA" ) );
+        assertThrows( IllegalArgumentException.class, () -> JwtToken.parse( header + ".!!!!.AAAA" ) );
+    }
+
+    @Test
+    public void parsesChainInOrder() {
+        String json = "{\"other\":{\"chain\":[\"x\"]},\"list\":[1,[2]],\"chain\":[\"first\",\"second\",{\"skip\":1},\"third\"]}";
+        assertEquals( Arrays.asList( "first", "second", "third" ), JwtToken.parseChain( json ) );
+        assertEquals( Collections.emptyList(), JwtToken.parseChain( "{\"chain\":[]}" ) );
+    }
+
+    @Test
+    public void rejectsMalformedChains() {
+        assertThrows( IllegalArgumentException.class, () -> JwtToken.parseChain( "" ) );
+        assertThrows( IllegalArgumentException.class, () -> JwtToken.parseChain( "[\"a\"]" ) );
+        assertThrows( IllegalArgumentException.class, () -> JwtToken.parseChain( "{\"other\":[\"a\"]}" ) );
+        assertThrows( IllegalArgumentException.class, () -> JwtToken.parseChain( "{\"chain\":\"a\"}" ) );
+        assertThrows( IllegalArgumentException.class, () -> JwtToken.parseChain( "{\"chain\":[\"a\"" ) );
+    }
+
+    private static String forge( String username, UUID uuid ) {
+        return new String( new MojangLoginForger( keyPair ).forge( username, uuid ), StandardCharsets.US_ASCII );
+    }
+
+}
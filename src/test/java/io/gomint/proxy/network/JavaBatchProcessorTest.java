@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+import io.gomint.crypto.Processor;
+import io.gomint.proxy.network.compression.ZlibCompressionEngine;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * @author geNAZt
+ * @version 1.0
+ */
+public class JavaBatchProcessorTest {
+
+    private static final byte[] KEY = new byte[32];
+    private static final byte[] IV;
+
+    static {
+        new Random( 42 ).nextBytes( KEY );
+        IV = Arrays.copyOf( KEY, 16 );
+    }
+
+    @Test
+    public void roundTripWithoutCrypto() {
+        JavaBatchProcessor encoder = processor( true );
+        JavaBatchProcessor decoder = processor( false );
+
+        for ( int size : new int[]{ 0, 16, 4096, 200000 } ) {
+            byte[] batch = batch( size );
+            assertArrayEquals( batch, process( decoder, process( encoder, batch ) ) );
+        }
+
+        encoder.close();
+        decoder.close();
+    }
+
+    @Test
+    public void roundTripWithCrypto() {
+        JavaBatchProcessor encoder = processor( true );
+        JavaBatchProcessor decoder = processor( false );
+        encoder.enableCrypto( KEY, IV );
+        decoder.enableCrypto( KEY, IV );
+
+        // The cipher and the checksum counter run over all batches, decode every one in order
+        for ( int size : new int[]{ 0, 16, 4096, 200000, 16 } ) {
+            byte[] batch = batch( size );
+            byte[] encoded = process( encoder, batch );
+            assertFalse( Arrays.equals( batch, encoded ) );
+            assertArrayEquals( batch, process( decoder, encoded ) );
+        }
+
+        encoder.close();
+        decoder.close();
+    }
+
+    @Test
+    public void matchesNativeProcessor() {
+        Processor nativeEncoder = nativeProcessor( true );
+        Processor nativeDecoder = nativeProcessor( false );
+        nativeEncoder.enableCrypto( KEY, IV );
+        nativeDecoder.enableCrypto( KEY, IV );
+
+        JavaBatchProcessor encoder = processor( true );
+        JavaBatchProcessor decoder = processor( false );
+        encoder.enableCrypto( KEY, IV );
+        decoder.enableCrypto( KEY, IV );
+
+        for ( int size : new int[]{ 16, 4096, 200000 } ) {
+            byte[] fromClient = batch( size );
+            assertArrayEquals( fromClient, process( decoder, process( nativeEncoder, fromClient ) ) );
+
+            byte[] toClient = batch( size + 1 );
+            assertArrayEquals( toClient, process( nativeDecoder, process( encoder, toClient ) ) );
+        }
+
+        encoder.close();
+        decoder.close();
+    }
+
+    @Test
+    public void rejectsInvalidChecksum() {
+        JavaBatchProcessor encoder = processor( true );
+        JavaBatchProcessor decoder = processor( false );
+        encoder.enableCrypto( KEY, IV );
+        decoder.enableCrypto( KEY, IV );
+
+        byte[] encoded = process( encoder, batch( 4096 ) );
+        encoded[encoded.length / 2] ^= 0x01;
+
+        IllegalStateException e = assertThrows( IllegalStateException.class, () -> process( decoder, encoded ) );
+        assertEquals( "Invalid batch checksum", e.getMessage() );
+
+        encoder.close();
+        decoder.close();
+    }
+
+    @Test
+    public void rejectsBatchesInflatingBeyondLimit() {
+        // 17 MiB of zeros deflate to a few KiB
+        Deflater deflater = new Deflater( Deflater.BEST_COMPRESSION, true );
+        deflater.setInput( new byte[17 * 1024 * 1024] );
+        deflater.finish();
+
+        byte[] buffer = new byte[1024 * 1024];
+        int length = deflater.deflate( buffer );
+        deflater.end();
+
+        JavaBatchProcessor decoder = processor( false );
+        byte[] compressed = Arrays.copyOf( buffer, length );
+        assertThrows( IllegalStateException.class, () -> process( decoder, compressed ) );
+        decoder.close();
+    }
+
+    private static JavaBatchProcessor processor( boolean encode ) {
+        return new JavaBatchProcessor( new ZlibCompressionEngine( Deflater.DEFAULT_COMPRESSION, 256, true ), encode );
+    }
+
+    private static Processor nativeProcessor( boolean encode ) {
+        try {
+            return new Processor( encode );
+        } catch ( LinkageError e ) {
+            assumeTrue( false, "Native crypto library is not available on this platform" );
+            return null;
+        }
+    }
+
+    private static byte[] batch( int size ) {
+        // Repeating content so compression actually kicks in above the skip threshold
+        byte[] data = new byte[size];
+        for ( int i = 0; i < size; i++ ) {
+            data[i] = (byte) ( i % 61 );
+        }
+
+        return data;
+    }
+
+    private static ByteBuf direct( byte[] data ) {
+        // The native processor works on memory addresses
+        ByteBuf buf = Unpooled.directBuffer( Math.max( 1, data.length ) );
+        buf.writeBytes( data );
+        return buf;
+    }
+
+    private static byte[] process( JavaBatchProcessor processor, byte[] data ) {
+        ByteBuf in = direct( data );
+        ByteBuf out = processor.process( in );
+        try {
+            return ByteBufUtil.getBytes( out );
+        } finally {
+            out.release();
+            in.release();
+        }
+    }
+
+    private static byte[] process( Processor processor, byte[] data ) {
+        ByteBuf in = direct( data );
+        ByteBuf out = processor.process( in );
+        try {
+            return ByteBufUtil.getBytes( out );
+        } finally {
+            out.release();
+            in.release();
+        }
+    }
+
+}
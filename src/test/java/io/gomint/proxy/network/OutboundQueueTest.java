@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+import io.gomint.proxy.network.packet.Packet;
+import io.gomint.proxy.network.packet.PacketPassthrough;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author geNAZt
+ * @version 1.0
+ */
+public class OutboundQueueTest {
+
+    private static final int PACKET_ID = PacketRegistry.PACKET_WORLD_EVENT;
+
+    @Test
+    public void emptyQueueNeverFlushes() {
+        OutboundQueue queue = new OutboundQueue( 16 );
+        assertFalse( queue.shouldFlush( new FlushPolicy(), System.nanoTime() + TimeUnit.SECONDS.toNanos( 1 ) ) );
+        assertNull( queue.poll() );
+    }
+
+    @Test
+    public void flushesOncePacketLimitIsReached() {
+        FlushPolicy policy = lingeringPolicy();
+        policy.setMaxPackets( 3 );
+
+        OutboundQueue queue = new OutboundQueue( 16 );
+        long now = System.nanoTime();
+        queue.offer( packet( PACKET_ID, 1 ), policy );
+        queue.offer( packet( PACKET_ID, 1 ), policy );
+        assertFalse( queue.shouldFlush( policy, now ) );
+
+        queue.offer( packet( PACKET_ID, 1 ), policy );
+        assertTrue( queue.shouldFlush( policy, now ) );
+    }
+
+    @Test
+    public void flushesOnceByteLimitIsReached() {
+        FlushPolicy policy = lingeringPolicy();
+        policy.setMaxBatchBytes( 100 );
+
+        OutboundQueue queue = new OutboundQueue( 16 );
+        long now = System.nanoTime();
+        queue.offer( packet( PACKET_ID, 60 ), policy );
+        assertFalse( queue.shouldFlush( policy, now ) );
+
+        queue.offer( packet( PACKET_ID, 40 ), policy );
+        assertTrue( queue.shouldFlush( policy, now ) );
+
+        // Polling gives the bytes back
+        queue.poll();
+        assertFalse( queue.shouldFlush( policy, now ) );
+    }
+
+    @Test
+    public void flushesAfterLinger() {
+        FlushPolicy policy = lingeringPolicy();
+        policy.setMaxLingerMicros( 1000 );
+
+        OutboundQueue queue = new OutboundQueue( 16 );
+        long before = System.nanoTime();
+        queue.offer( packet( PACKET_ID, 1 ), policy );
+        long after = System.nanoTime();
+
+        long deadline = queue.getFlushDeadline( policy, after );
+        assertTrue( deadline >= before + TimeUnit.MICROSECONDS.toNanos( 1000 ) );
+        assertTrue( deadline <= after + TimeUnit.MICROSECONDS.toNanos( 1000 ) );
+
+        assertFalse( queue.shouldFlush( policy, before ) );
+        assertTrue( queue.shouldFlush( policy, deadline ) );
+    }
+
+    @Test
+    public void immediatePacketFlushesUntilFlushBegins() {
+        FlushPolicy policy = lingeringPolicy();
+
+        OutboundQueue queue = new OutboundQueue( 16 );
+        long now = System.nanoTime();
+        queue.offer( packet( PACKET_ID, 1 ), policy );
+        assertFalse( queue.shouldFlush( policy, now ) );
+
+        queue.offer( packet( PacketRegistry.PACKET_MOVE_PLAYER, 1 ), policy );
+        assertTrue( queue.shouldFlush( policy, now ) );
+
+        assertTrue( queue.beginFlush( now ) >= 0 );
+        assertFalse( queue.shouldFlush( policy, now ) );
+    }
+
+    @Test
+    public void beginFlushReportsTimeOfOldestPacket() {
+        FlushPolicy policy = lingeringPolicy();
+
+        OutboundQueue queue = new OutboundQueue( 16 );
+        assertEquals( 0, queue.beginFlush( System.nanoTime() ) );
+
+        queue.offer( packet( PACKET_ID, 1 ), policy );
+        long later = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( 5 );
+        assertTrue( queue.beginFlush( later ) >= TimeUnit.MILLISECONDS.toNanos( 5 ) );
+    }
+
+    @Test
+    public void overflowDoesNotCountBytes() {
+        FlushPolicy policy = lingeringPolicy();
+        policy.setMaxBatchBytes( 100 );
+
+        OutboundQueue queue = new OutboundQueue( 2 );
+        Packet first = packet( PACKET_ID, 10 );
+        assertTrue( queue.offer( first, policy ) );
+        assertTrue( queue.offer( packet( PACKET_ID, 10 ), policy ) );
+        assertFalse( queue.offer( packet( PACKET_ID, 500 ), policy ) );
+        assertEquals( 1, queue.getOverflowCount() );
+        assertEquals( 2, queue.size() );
+
+        // The dropped packet must not make the queue look full
+        assertFalse( queue.shouldFlush( policy, System.nanoTime() ) );
+        assertSame( first, queue.poll() );
+    }
+
+    private static FlushPolicy lingeringPolicy() {
+        // Only flush on what the test asks for
+        FlushPolicy policy = new FlushPolicy();
+        policy.setMaxLingerMicros( TimeUnit.HOURS.toMicros( 1 ) );
+        return policy;
+    }
+
+    private static Packet packet( int id, int length ) {
+        return new PacketPassthrough( id, Unpooled.wrappedBuffer( new byte[length] ) );
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author geNAZt
+ * @version 1.0
+ */
+public class ProxyKeyStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    public static void registerProvider() {
+        Security.addProvider( new BouncyCastleProvider() );
+    }
+
+    @Test
+    public void generatedPairIsLoadedAgain() throws Exception {
+        ProxyKeyStore first = this.createStore();
+        first.load();
+        KeyPair generated = first.getKeyPair();
+        assertNotNull( generated );
+
+        ProxyKeyStore second = this.createStore();
+        second.load();
+        assertArrayEquals( generated.getPublic().getEncoded(), second.getKeyPair().getPublic().getEncoded() );
+        assertArrayEquals( generated.getPrivate().getEncoded(), second.getKeyPair().getPrivate().getEncoded() );
+    }
+
+    @Test
+    public void publicKeyIsExported() throws Exception {
+        ProxyKeyStore store = this.createStore();
+        store.load();
+
+        String exported = new String( Files.readAllBytes( this.directory.resolve( "server.public.key" ) ), StandardCharsets.US_ASCII );
+        assertEquals( Base64.getEncoder().encodeToString( store.getKeyPair().getPublic().getEncoded() ), exported );
+    }
+
+    @Test
+    public void mismatchedPairIsReplaced() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance( "EC", "BC" );
+        generator.initialize( 384 );
+        KeyPair a = generator.generateKeyPair();
+        KeyPair b = generator.generateKeyPair();
+
+        Base64.Encoder encoder = Base64.getEncoder();
+        Files.write( this.directory.resolve( "server.keys" ), ( encoder.encodeToString( a.getPublic().getEncoded() ) + "\n" +
+            encoder.encodeToString( b.getPrivate().getEncoded() ) + "\n" ).getBytes( StandardCharsets.US_ASCII ) );
+
+        ProxyKeyStore store = this.createStore();
+        store.load();
+        assertFalse( Arrays.equals( a.getPublic().getEncoded(), store.getKeyPair().getPublic().getEncoded() ) );
+        assertFalse( Arrays.equals( b.getPrivate().getEncoded(), store.getKeyPair().getPrivate().getEncoded() ) );
+
+        // The replacement has been stored
+        ProxyKeyStore reloaded = this.createStore();
+        reloaded.load();
+        assertArrayEquals( store.getKeyPair().getPublic().getEncoded(), reloaded.getKeyPair().getPublic().getEncoded() );
+    }
+
+    @Test
+    public void brokenFileIsReplaced() throws Exception {
+        Files.write( this.directory.resolve( "server.keys" ), "not a key".getBytes( StandardCharsets.US_ASCII ) );
+
+        ProxyKeyStore store = this.createStore();
+        store.load();
+        assertNotNull( store.getKeyPair() );
+        assertEquals( 2, Files.readAllLines( this.directory.resolve( "server.keys" ) ).size() );
+    }
+
+    @Test
+    public void rotateReplacesStoredPair() throws Exception {
+        ProxyKeyStore store = this.createStore();
+        store.load();
+        KeyPair old = store.getKeyPair();
+
+        store.rotate();
+        assertFalse( Arrays.equals( old.getPublic().getEncoded(), store.getKeyPair().getPublic().getEncoded() ) );
+
+        ProxyKeyStore reloaded = this.createStore();
+        reloaded.load();
+        assertArrayEquals( store.getKeyPair().getPublic().getEncoded(), reloaded.getKeyPair().getPublic().getEncoded() );
+
+        // No temporary files are left behind
+        File[] files = this.directory.toFile().listFiles();
+        assertNotNull( files );
+        assertEquals( 2, files.length );
+        for ( File file : files ) {
+            assertTrue( file.getName().equals( "server.keys" ) || file.getName().equals( "server.public.key" ), file.getName() );
+        }
+    }
+
+    private ProxyKeyStore createStore() {
+        return new ProxyKeyStore( this.directory.resolve( "server.keys" ).toFile(), this.directory.resolve( "server.public.key" ).toFile() );
+    }
+
+}
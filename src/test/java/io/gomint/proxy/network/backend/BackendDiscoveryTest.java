@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author geNAZt
+ * @version 1.0
+ */
+public class BackendDiscoveryTest {
+
+    @Test
+    public void parsesPortOfCompleteMotd() {
+        assertEquals( 19134, BackendDiscovery.parseGamePort( "MCPE;GoMint;408;1.16.20;0;20;123456;World;Survival;1;19134;19135;" ) );
+        assertEquals( 19134, BackendDiscovery.parseGamePort( "MCPE;GoMint;408;1.16.20;0;20;123456;World;Survival;1;19134;19135" ) );
+    }
+
+    @Test
+    public void ignoresTrailingSeparators() {
+        assertEquals( 19134, BackendDiscovery.parseGamePort( "MCPE;GoMint;19134;19135;;;" ) );
+    }
+
+    @Test
+    public void rejectsInvalidPorts() {
+        assertEquals( -1, BackendDiscovery.parseGamePort( "" ) );
+        assertEquals( -1, BackendDiscovery.parseGamePort( ";;;" ) );
+        assertEquals( -1, BackendDiscovery.parseGamePort( "MCPE" ) );
+        assertEquals( -1, BackendDiscovery.parseGamePort( "MCPE;GoMint;0;19135;" ) );
+        assertEquals( -1, BackendDiscovery.parseGamePort( "MCPE;GoMint;65536;19135;" ) );
+        assertEquals( -1, BackendDiscovery.parseGamePort( "MCPE;GoMint;-5;19135;" ) );
+    }
+
+    @Test
+    public void remembersGameAddressOfPong() {
+        InetSocketAddress pingAddress = new InetSocketAddress( InetAddress.getLoopbackAddress(), 19132 );
+        Backend backend = new Backend( pingAddress, 1, 0 );
+        BackendDiscovery discovery = new BackendDiscovery( new BackendPool( Collections.singletonList( backend ), BalancingStrategy.LEAST_CONNECTIONS ) );
+
+        assertNull( discovery.getGameAddress( backend ) );
+        assertNull( discovery.update( pingAddress, "MCPE;GoMint;invalid;" ) );
+        assertNull( discovery.getGameAddress( backend ) );
+
+        InetSocketAddress gameAddress = discovery.update( pingAddress, "MCPE;GoMint;19134;19135;" );
+        assertEquals( new InetSocketAddress( InetAddress.getLoopbackAddress(), 19134 ), gameAddress );
+        assertEquals( gameAddress, discovery.getGameAddress( backend ) );
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author geNAZt
+ * @version 1.0
+ */
+public class BackendSelectorTest {
+
+    @Test
+    public void leastConnectionsRespectsWeight() {
+        Backend light = backend( 1, 1 );
+        Backend heavy = backend( 2, 3 );
+        BackendSelector selector = new LeastConnectionsSelector( Arrays.asList( light, heavy ) );
+
+        // 1 / 1 vs 2 / 3
+        light.tryAcquire();
+        heavy.tryAcquire();
+        heavy.tryAcquire();
+        assertSame( heavy, selector.select( null, Backend::isAvailable ) );
+
+        // 1 / 1 vs 3 / 3, ties go to the first backend
+        heavy.tryAcquire();
+        assertSame( light, selector.select( null, Backend::isAvailable ) );
+    }
+
+    @Test
+    public void weightedRoundRobinIsSmooth() {
+        Backend a = backend( 1, 5 );
+        Backend b = backend( 2, 1 );
+        Backend c = backend( 3, 1 );
+        BackendSelector selector = new WeightedRoundRobinSelector( Arrays.asList( a, b, c ) );
+
+        List<Backend> picked = new ArrayList<>();
+        for ( int i = 0; i < 7; i++ ) {
+            picked.add( selector.select( null, backend -> true ) );
+        }
+
+        // Smooth weighted round robin never hands out the heavy backend five times in a row
+        assertEquals( Arrays.asList( a, a, b, a, c, a, a ), picked );
+    }
+
+    @Test
+    public void weightedRoundRobinSkipsUnavailable() {
+        Backend a = backend( 1, 1 );
+        Backend b = backend( 2, 1 );
+        BackendSelector selector = new WeightedRoundRobinSelector( Arrays.asList( a, b ) );
+
+        for ( int i = 0; i < 4; i++ ) {
+            assertSame( b, selector.select( null, backend -> backend != a ) );
+        }
+
+        assertNull( selector.select( null, backend -> false ) );
+    }
+
+    @Test
+    public void consistentHashIsStable() {
+        List<Backend> backends = Arrays.asList( backend( 1, 1 ), backend( 2, 1 ), backend( 3, 1 ) );
+        BackendSelector selector = new ConsistentHashSelector( backends );
+
+        Map<Backend, Integer> counts = new HashMap<>();
+        for ( int i = 0; i < 3000; i++ ) {
+            UUID uuid = new UUID( i * 0x9E3779B97F4A7C15L, i );
+            Backend first = selector.select( uuid, backend -> true );
+            assertSame( first, selector.select( uuid, backend -> true ) );
+            counts.merge( first, 1, Integer::sum );
+        }
+
+        // Every backend gets a fair share of the players
+        for ( Backend backend : backends ) {
+            assertTrue( counts.getOrDefault( backend, 0 ) > 600, "Unfair share: " + counts );
+        }
+    }
+
+    @Test
+    public void consistentHashOnlyMovesPlayersOfUnavailableBackend() {
+        List<Backend> backends = Arrays.asList( backend( 1, 1 ), backend( 2, 1 ), backend( 3, 1 ) );
+        Backend removed = backends.get( 1 );
+        BackendSelector selector = new ConsistentHashSelector( backends );
+
+        for ( int i = 0; i < 1000; i++ ) {
+            UUID uuid = new UUID( i * 0x9E3779B97F4A7C15L, i );
+            Backend before = selector.select( uuid, backend -> true );
+            Backend after = selector.select( uuid, backend -> backend != removed );
+
+            if ( before == removed ) {
+                assertNotSame( removed, after );
+            } else {
+                assertSame( before, after );
+            }
+        }
+    }
+
+    @Test
+    public void poolSkipsFullBackends() {
+        Backend small = backend( 1, 1, 1 );
+        Backend large = backend( 2, 1, 0 );
+        BackendPool pool = new BackendPool( Arrays.asList( small, large ), BalancingStrategy.LEAST_CONNECTIONS );
+
+        assertSame( small, pool.acquire( null ) );
+        assertSame( large, pool.acquire( null ) );
+        assertSame( large, pool.acquire( null ) );
+        assertEquals( 1, small.getConnections() );
+        assertEquals( 2, large.getConnections() );
+
+        small.release();
+        assertSame( small, pool.acquire( null ) );
+    }
+
+    @Test
+    public void poolSkipsUnhealthyBackends() {
+        Backend broken = backend( 1, 1 );
+        Backend working = backend( 2, 1 );
+        BackendPool pool = new BackendPool( Arrays.asList( broken, working ), BalancingStrategy.WEIGHTED_ROUND_ROBIN );
+
+        for ( int i = 0; i < Backend.FAILURE_THRESHOLD; i++ ) {
+            broken.markFailure();
+        }
+
+        for ( int i = 0; i < 4; i++ ) {
+            assertSame( working, pool.acquire( null ) );
+        }
+
+        broken.markSuccess();
+        assertTrue( broken.isAvailable() );
+    }
+
+    @Test
+    public void strategiesAreParsedFromCommandLineNames() {
+        assertSame( BalancingStrategy.LEAST_CONNECTIONS, BalancingStrategy.parse( "least-connections" ) );
+        assertSame( BalancingStrategy.WEIGHTED_ROUND_ROBIN, BalancingStrategy.parse( " Weighted-Round-Robin " ) );
+        assertSame( BalancingStrategy.CONSISTENT_HASH, BalancingStrategy.parse( "consistent_hash" ) );
+    }
+
+    private static Backend backend( int port, int weight ) {
+        return backend( port, weight, 0 );
+    }
+
+    private static Backend backend( int port, int weight, int maxConnections ) {
+        return new Backend( InetSocketAddress.createUnresolved( "backend" + port, 19132 ), weight, maxConnections );
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author geNAZt
+ * @version 1.0
+ */
+public class ZlibCompressionEngineTest {
+
+    @Test
+    public void roundTripRawAndWrapped() throws DataFormatException {
+        for ( boolean raw : new boolean[]{ true, false } ) {
+            ZlibCompressionEngine engine = new ZlibCompressionEngine( Deflater.DEFAULT_COMPRESSION, 256, raw );
+            for ( int size : new int[]{ 0, 100, 70000 } ) {
+                byte[] data = data( size );
+                assertArrayEquals( data, decompress( engine, compress( engine, data ) ) );
+            }
+
+            engine.close();
+        }
+    }
+
+    @Test
+    public void storesBatchesBelowSkipThreshold() throws DataFormatException {
+        ZlibCompressionEngine engine = new ZlibCompressionEngine( Deflater.BEST_COMPRESSION, 1024, true );
+
+        byte[] small = data( 1000 );
+        byte[] stored = compress( engine, small );
+        assertTrue( stored.length > small.length );
+        assertArrayEquals( small, decompress( engine, stored ) );
+
+        byte[] large = data( 2000 );
+        byte[] compressed = compress( engine, large );
+        assertTrue( compressed.length < large.length );
+        assertArrayEquals( large, decompress( engine, compressed ) );
+
+        engine.close();
+    }
+
+    @Test
+    public void rejectsOutputBeyondLimit() {
+        ZlibCompressionEngine engine = new ZlibCompressionEngine( Deflater.BEST_COMPRESSION, 0, true );
+
+        // Just above the 16 MiB inflate limit, zeros deflate to a few KiB
+        byte[] compressed = compress( engine, new byte[16 * 1024 * 1024 + 1] );
+        assertThrows( DataFormatException.class, () -> decompress( engine, compressed ) );
+
+        engine.close();
+    }
+
+    @Test
+    public void rejectsTruncatedInput() {
+        ZlibCompressionEngine engine = new ZlibCompressionEngine( Deflater.DEFAULT_COMPRESSION, 0, true );
+
+        byte[] compressed = compress( engine, data( 4096 ) );
+        byte[] truncated = Arrays.copyOf( compressed, compressed.length / 2 );
+        assertThrows( DataFormatException.class, () -> decompress( engine, truncated ) );
+
+        engine.close();
+    }
+
+    private static byte[] data( int size ) {
+        byte[] data = new byte[size];
+        for ( int i = 0; i < size; i++ ) {
+            data[i] = (byte) ( i % 61 );
+        }
+
+        return data;
+    }
+
+    private static byte[] compress( CompressionEngine engine, byte[] data ) {
+        ByteBuf out = engine.compress( Unpooled.wrappedBuffer( data ) );
+        try {
+            return ByteBufUtil.getBytes( out );
+        } finally {
+            out.release();
+        }
+    }
+
+    private static byte[] decompress( CompressionEngine engine, byte[] data ) throws DataFormatException {
+        ByteBuf out = engine.decompress( Unpooled.wrappedBuffer( data ) );
+        try {
+            return ByteBufUtil.getBytes( out );
+        } finally {
+            out.release();
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.network.packet;
+
+import io.gomint.jraknet.PacketBuffer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author geNAZt
+ * @version 1.0
+ */
+public class LazyPacketTest {
+
+    private static final byte[] PAYLOAD = "{\"chain\":[]}".getBytes( StandardCharsets.US_ASCII );
+    private static final byte[] TRAILER = { 1, 2, 3, 4, 5 };
+
+    @Test
+    public void unmodifiedPacketIsWrittenFromRawBytes() {
+        ByteBuf body = loginBody( 407 );
+        byte[] expected = ByteBufUtil.getBytes( body );
+
+        PacketLogin packet = new PacketLogin();
+        packet.deserialize( new PacketBuffer( body ) );
+        assertEquals( expected.length, packet.estimateLength() );
+        assertArrayEquals( expected, serialize( packet ) );
+
+        packet.release();
+        body.release();
+    }
+
+    @Test
+    public void patchOverwritesFieldInPlace() {
+        ByteBuf body = loginBody( 407 );
+        byte[] original = ByteBufUtil.getBytes( body );
+
+        PacketLogin packet = new PacketLogin();
+        packet.deserialize( new PacketBuffer( body ) );
+        packet.setProtocol( 408 );
+
+        assertFalse( packet.isModified() );
+        assertArrayEquals( toArray( loginBody( 408 ) ), serialize( packet ) );
+
+        // The buffer the packet came from has not been touched
+        assertArrayEquals( original, ByteBufUtil.getBytes( body, 0, original.length ) );
+
+        // Decoding after a patch sees the patched value
+        assertEquals( 408, packet.getProtocol() );
+        assertArrayEquals( PAYLOAD, packet.getPayload() );
+
+        packet.release();
+        body.release();
+    }
+
+    @Test
+    public void modifiedPacketIsEncoded() {
+        ByteBuf body = loginBody( 407 );
+
+        PacketLogin packet = new PacketLogin();
+        packet.deserialize( new PacketBuffer( body ) );
+        byte[] payload = "{\"chain\":[\"a\"]}".getBytes( StandardCharsets.US_ASCII );
+        packet.setPayload( payload );
+        packet.setProtocol( 409 );
+
+        assertTrue( packet.isModified() );
+        assertEquals( 4 + 5 + payload.length, packet.estimateLength() );
+
+        ByteBuf expected = Unpooled.buffer();
+        PacketBuffer buffer = new PacketBuffer( expected );
+        buffer.writeInt( 409 );
+        buffer.writeUnsignedVarInt( payload.length );
+        buffer.writeBytes( payload );
+        assertArrayEquals( toArray( expected ), serialize( packet ) );
+
+        packet.release();
+        body.release();
+    }
+
+    @Test
+    public void entityIdsArePatchedWithoutDecoding() {
+        ByteBuf body = startGameBody( 1, 1 );
+
+        PacketStartGame packet = new PacketStartGame();
+        packet.deserialize( new PacketBuffer( body ) );
+
+        // Same encoded length on both fields
+        packet.setEntityId( -2 );
+        packet.setRuntimeEntityId( 3 );
+
+        // The trailer is no valid StartGame body, a decode would have failed
+        assertFalse( packet.isModified() );
+        assertArrayEquals( toArray( startGameBody( -2, 3 ) ), serialize( packet ) );
+
+        packet.release();
+        body.release();
+    }
+
+    @Test
+    public void resizedVarIntsAreSpliced() {
+        ByteBuf body = startGameBody( 1, 1 );
+
+        PacketStartGame packet = new PacketStartGame();
+        packet.deserialize( new PacketBuffer( body ) );
+
+        // Grow the first field, the offset of the second one has to move along
+        packet.setEntityId( 1L << 40 );
+        packet.setRuntimeEntityId( 300 );
+        assertArrayEquals( toArray( startGameBody( 1L << 40, 300 ) ), serialize( packet ) );
+
+        // And shrink both again
+        packet.setEntityId( 5 );
+        packet.setRuntimeEntityId( 0 );
+        assertArrayEquals( toArray( startGameBody( 5, 0 ) ), serialize( packet ) );
+
+        assertFalse( packet.isModified() );
+        assertEquals( toArray( startGameBody( 5, 0 ) ).length, packet.estimateLength() );
+
+        packet.release();
+        body.release();
+    }
+
+    private static ByteBuf loginBody( int protocol ) {
+        ByteBuf body = Unpooled.buffer();
+        PacketBuffer buffer = new PacketBuffer( body );
+        buffer.writeInt( protocol );
+        buffer.writeUnsignedVarInt( PAYLOAD.length );
+        buffer.writeBytes( PAYLOAD );
+        return body;
+    }
+
+    private static ByteBuf startGameBody( long entityId, long runtimeEntityId ) {
+        ByteBuf body = Unpooled.buffer();
+        PacketBuffer buffer = new PacketBuffer( body );
+        buffer.writeSignedVarLong( entityId );
+        buffer.writeUnsignedVarLong( runtimeEntityId );
+        buffer.writeBytes( TRAILER );
+        return body;
+    }
+
+    private static byte[] serialize( Packet packet ) {
+        ByteBuf out = Unpooled.buffer();
+        packet.serialize( new PacketBuffer( out ) );
+        return toArray( out );
+    }
+
+    private static byte[] toArray( ByteBuf buf ) {
+        byte[] bytes = ByteBufUtil.getBytes( buf );
+        buf.release();
+        return bytes;
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author geNAZt
+ * @version 1.0
+ */
+public class ExpiringCacheTest {
+
+    @Test
+    public void valuesAreComputedOnce() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>( "test", 16, 1, TimeUnit.HOURS );
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals( "A", cache.computeIfAbsent( "a", key -> {
+            loads.incrementAndGet();
+            return key.toUpperCase();
+        } ) );
+        assertEquals( "A", cache.computeIfAbsent( "a", key -> {
+            loads.incrementAndGet();
+            return "other";
+        } ) );
+
+        assertEquals( 1, loads.get() );
+        assertEquals( 1, cache.getHits() );
+        assertEquals( 1, cache.getMisses() );
+        assertEquals( 0.5, cache.getHitRate(), 0.0001 );
+    }
+
+    @Test
+    public void nullValuesAreNotCached() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>( "test", 16, 1, TimeUnit.HOURS );
+
+        assertNull( cache.computeIfAbsent( "a", key -> null ) );
+        assertEquals( "A", cache.computeIfAbsent( "a", key -> "A" ) );
+        assertEquals( 2, cache.getMisses() );
+        assertEquals( 0, cache.getHits() );
+    }
+
+    @Test
+    public void entriesExpire() throws InterruptedException {
+        ExpiringCache<String, Integer> cache = new ExpiringCache<>( "test", 16, 1, TimeUnit.MILLISECONDS );
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.computeIfAbsent( "a", key -> loads.incrementAndGet() );
+        Thread.sleep( 5 );
+        assertEquals( 2, cache.computeIfAbsent( "a", key -> loads.incrementAndGet() ) );
+        assertEquals( 0, cache.getHits() );
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        ExpiringCache<String, Integer> cache = new ExpiringCache<>( "test", 2, 1, TimeUnit.HOURS );
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.computeIfAbsent( "a", key -> loads.incrementAndGet() );
+        cache.computeIfAbsent( "b", key -> loads.incrementAndGet() );
+        cache.computeIfAbsent( "a", key -> loads.incrementAndGet() );
+        cache.computeIfAbsent( "c", key -> loads.incrementAndGet() );
+
+        // b has been used least recently and made room for c
+        assertEquals( 1, cache.computeIfAbsent( "a", key -> loads.incrementAndGet() ) );
+        assertEquals( 4, cache.computeIfAbsent( "b", key -> loads.incrementAndGet() ) );
+    }
+
+    @Test
+    public void clearRemovesEntries() {
+        ExpiringCache<String, Integer> cache = new ExpiringCache<>( "test", 16, 1, TimeUnit.HOURS );
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.computeIfAbsent( "a", key -> loads.incrementAndGet() );
+        cache.clear();
+        assertEquals( 2, cache.computeIfAbsent( "a", key -> loads.incrementAndGet() ) );
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2020, GoMint, BlackyPaw and geNAZt
+ *
+ * This code is licensed under the BSD license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package io.gomint.proxy.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author geNAZt
+ * @version 1.0
+ */
+public class MpscRingQueueTest {
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals( 2, new MpscRingQueue<>( 0 ).capacity() );
+        assertEquals( 2, new MpscRingQueue<>( 2 ).capacity() );
+        assertEquals( 8, new MpscRingQueue<>( 5 ).capacity() );
+        assertEquals( 1024, new MpscRingQueue<>( 1024 ).capacity() );
+    }
+
+    @Test
+    public void pollReturnsElementsInOrder() {
+        MpscRingQueue<Integer> queue = new MpscRingQueue<>( 4 );
+        assertNull( queue.poll() );
+        assertNull( queue.peek() );
+
+        // Go around the ring a few times
+        for ( int round = 0; round < 3; round++ ) {
+            for ( int i = 0; i < 3; i++ ) {
+                assertTrue( queue.offer( round * 10 + i ) );
+            }
+
+            assertEquals( 3, queue.size() );
+            assertEquals( round * 10, queue.peek() );
+            for ( int i = 0; i < 3; i++ ) {
+                assertEquals( round * 10 + i, queue.poll() );
+            }
+
+            assertTrue( queue.isEmpty() );
+        }
+    }
+
+    @Test
+    public void offerFailsWhenFull() {
+        MpscRingQueue<String> queue = new MpscRingQueue<>( 2 );
+        assertTrue( queue.offer( "a" ) );
+        assertTrue( queue.offer( "b" ) );
+        assertFalse( queue.offer( "c" ) );
+        assertEquals( 1, queue.getOverflowCount() );
+        assertEquals( 2, queue.size() );
+
+        // A freed slot can be used again
+        assertEquals( "a", queue.poll() );
+        assertTrue( queue.offer( "c" ) );
+        assertEquals( "b", queue.poll() );
+        assertEquals( "c", queue.poll() );
+    }
+
+    @Test
+    public void clearDrainsQueue() {
+        MpscRingQueue<Integer> queue = new MpscRingQueue<>( 8 );
+        for ( int i = 0; i < 5; i++ ) {
+            queue.offer( i );
+        }
+
+        queue.clear();
+        assertTrue( queue.isEmpty() );
+        assertNull( queue.poll() );
+    }
+
+    @Test
+    public void concurrentProducersLoseNothing() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 100_000;
+        MpscRingQueue<Integer> queue = new MpscRingQueue<>( 256 );
+        CountDownLatch start = new CountDownLatch( 1 );
+        AtomicInteger failed = new AtomicInteger();
+
+        Thread[] threads = new Thread[producers];
+        for ( int p = 0; p < producers; p++ ) {
+            int producer = p;
+            threads[p] = new Thread( () -> {
+                try {
+                    start.await();
+                } catch ( InterruptedException e ) {
+                    failed.incrementAndGet();
+                    return;
+                }
+
+                for ( int i = 0; i < perProducer; i++ ) {
+                    while ( !queue.offer( producer * perProducer + i ) ) {
+                        Thread.yield();
+                    }
+                }
+            } );
+            threads[p].start();
+        }
+
+        start.countDown();
+
+        // Elements of one producer have to arrive in the order they were offered
+        int[] next = new int[producers];
+        int received = 0;
+        while ( received < producers * perProducer ) {
+            Integer element = queue.poll();
+            if ( element == null ) {
+                Thread.yield();
+                continue;
+            }
+
+            int producer = element / perProducer;
+            assertEquals( next[producer]++, element % perProducer );
+            received++;
+        }
+
+        for ( Thread thread : threads ) {
+            thread.join();
+        }
+
+        assertEquals( 0, failed.get() );
+        assertTrue( queue.isEmpty() );
+    }
+
+}